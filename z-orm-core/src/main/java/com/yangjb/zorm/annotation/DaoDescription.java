@@ -18,4 +18,58 @@ public @interface DaoDescription {
      * @return
      */
     String settingBeanName();
+
+    /**
+     * 按id缓存entity的二级缓存最大条数,0表示不开启
+     * 开启后findOneById、findListByIds、exists(id)优先读取缓存,按id、按条件更新和删除时失效
+     *
+     * @return
+     */
+    long cacheMaximumSize() default 0;
+
+    /**
+     * 二级缓存和查询结果缓存写入后过期的秒数,0表示不过期
+     *
+     * @return
+     */
+    long cacheExpireSeconds() default 300;
+
+    /**
+     * 查询结果缓存的最大权重(估算的字段值个数),0表示不开启,只支持jdbc
+     * 开启后findListByQuery、countByCriteria、countAll按sql和绑定值缓存结果,通过dao对同一个表的任何写操作都会使其失效
+     * 适用于字典、配置等很少修改的表
+     *
+     * @return
+     */
+    long queryCacheMaximumWeight() default 0;
+
+    /**
+     * 分片键属性名,不为空时覆盖Table.shardKey,只支持jdbc
+     *
+     * @return
+     */
+    String shardKey() default "";
+
+    /**
+     * dao默认的舱壁分区名,对应JdbcSettings.bulkheads,只支持jdbc
+     * 报表等慢查询放在单独的分区中,避免占满连接池影响其他dao
+     *
+     * @return
+     */
+    String bulkhead() default "";
+
+    /**
+     * findOneById、findListByIds是否对冲读,需要设置JdbcSettings.hedgeExecutor,只支持jdbc
+     *
+     * @return
+     */
+    boolean hedgedReads() default false;
+
+    /**
+     * dao默认的负载类型,读操作使用JdbcSettings.readGroups中对应的读库组,只支持jdbc
+     * 如报表、后台任务等负载使用单独的读库,不影响在线查询
+     *
+     * @return
+     */
+    String workload() default "";
 }
@@ -22,4 +22,11 @@ public @interface Table {
      * @return
      */
     String sequence() default "";
+
+    /**
+     * 分片键属性名,不为空时按JdbcSettings.shards分片,只支持jdbc
+     *
+     * @return
+     */
+    String shardKey() default "";
 }
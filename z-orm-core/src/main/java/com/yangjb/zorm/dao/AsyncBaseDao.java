@@ -0,0 +1,238 @@
+package com.yangjb.zorm.dao;
+
+import com.yangjb.zorm.exception.DaoException;
+import com.yangjb.zorm.exception.DaoExceptionTranslator;
+import com.yangjb.zorm.query.*;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * IBaseDao的异步视图,方法在数据源对应的有界线程池中执行,返回CompletableFuture
+ * 返回的future调用cancel(true)会中断正在执行的查询;设置超时后超时的future以DaoException结束并中断查询
+ * taskDecorator返回CancellableTask时,取消和超时还会调用它的cancel取消正在执行的语句
+ * 线程池队列满时返回的future以DaoException结束
+ * 不能在事物中使用:事物绑定在调用线程,异步执行的操作不会加入事物
+ * 调用线程的上下文(如一致性级别)由taskDecorator在提交时捕获,在线程池中恢复
+ */
+public final class AsyncBaseDao<T> {
+    private static final ScheduledExecutorService TIMEOUT_SCHEDULER;
+
+    static {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "zorm-async-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        TIMEOUT_SCHEDULER = scheduler;
+    }
+
+    private final IBaseDao<T> dao;
+    private final ExecutorService executor;
+    //调用线程是否处于事物中
+    private final BooleanSupplier inTransaction;
+    //在调用线程执行,返回在线程池中执行的任务,用于传递调用线程的上下文;返回CancellableTask时可以取消正在执行的语句
+    private final UnaryOperator<Runnable> taskDecorator;
+    //超时毫秒数,0表示不超时
+    private final long timeoutMillis;
+
+    public AsyncBaseDao(IBaseDao<T> dao, ExecutorService executor, BooleanSupplier inTransaction) {
+        this(dao, executor, inTransaction, UnaryOperator.identity());
+    }
+
+    public AsyncBaseDao(IBaseDao<T> dao, ExecutorService executor, BooleanSupplier inTransaction, UnaryOperator<Runnable> taskDecorator) {
+        this(dao, executor, inTransaction, taskDecorator, 0);
+    }
+
+    private AsyncBaseDao(IBaseDao<T> dao, ExecutorService executor, BooleanSupplier inTransaction, UnaryOperator<Runnable> taskDecorator,
+                         long timeoutMillis) {
+        this.dao = dao;
+        this.executor = executor;
+        this.inTransaction = inTransaction;
+        this.taskDecorator = taskDecorator;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * 返回设置了超时的异步视图,超时后future以DaoException结束并中断查询
+     *
+     * @param timeout - 超时时间
+     * @param unit    - 单位
+     * @return - 新的异步视图
+     */
+    public AsyncBaseDao<T> withTimeout(long timeout, TimeUnit unit) {
+        return new AsyncBaseDao<T>(dao, executor, inTransaction, taskDecorator, unit.toMillis(timeout));
+    }
+
+    /**
+     * 在线程池中执行任意dao方法
+     *
+     * @param action - 使用同步dao的操作
+     * @return - future
+     */
+    public <R> CompletableFuture<R> submit(Function<IBaseDao<T>, R> action) {
+        if (inTransaction.getAsBoolean()) {
+            throw new DaoException("异步dao不能在事物中使用");
+        }
+
+        TaskFuture<R> future = new TaskFuture<R>();
+        Runnable task = taskDecorator.apply(() -> {
+            //开始执行前已被取消
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                future.complete(action.apply(dao));
+            } catch (Throwable e) {
+                future.completeExceptionally(DaoExceptionTranslator.translate(e));
+            }
+        });
+        future.cancellable = task instanceof CancellableTask ? (CancellableTask) task : null;
+        try {
+            future.task = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new DaoException("异步dao线程池已满", e));
+            return future;
+        }
+        //submit返回前被取消时cancel还看不到task
+        if (future.isCancelled()) {
+            future.abort();
+        }
+
+        if (timeoutMillis > 0) {
+            ScheduledFuture<?> timeout = TIMEOUT_SCHEDULER.schedule(() -> {
+                if (future.completeExceptionally(new DaoException("异步dao执行超过" + timeoutMillis + "ms"))) {
+                    future.interrupt = true;
+                    future.abort();
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            future.whenComplete((r, e) -> timeout.cancel(false));
+        }
+        return future;
+    }
+
+    public CompletableFuture<Boolean> exists(Serializable id) {
+        return submit(dao -> dao.exists(id));
+    }
+
+    public CompletableFuture<Boolean> exists(Criteria criteria) {
+        return submit(dao -> dao.exists(criteria));
+    }
+
+    public CompletableFuture<Long> countByCriteria(Criteria criteria) {
+        return submit(dao -> dao.countByCriteria(criteria));
+    }
+
+    public CompletableFuture<Long> countAll() {
+        return submit(IBaseDao::countAll);
+    }
+
+    public CompletableFuture<T> findOneById(Serializable id) {
+        return submit(dao -> dao.findOneById(id));
+    }
+
+    public CompletableFuture<T> findOneByQuery(Query query) {
+        return submit(dao -> dao.findOneByQuery(query));
+    }
+
+    public CompletableFuture<T> findOne(Criteria criteria) {
+        return submit(dao -> dao.findOne(criteria));
+    }
+
+    public CompletableFuture<List<T>> findListByIds(List<Serializable> ids) {
+        return submit(dao -> dao.findListByIds(ids));
+    }
+
+    public CompletableFuture<List<T>> findListByQuery(Query query) {
+        return submit(dao -> dao.findListByQuery(query));
+    }
+
+    public CompletableFuture<List<T>> findListByQuery(Query query, Pageable pageable) {
+        return submit(dao -> dao.findListByQuery(query, pageable));
+    }
+
+    public CompletableFuture<List<T>> findList(Criteria criteria) {
+        return submit(dao -> dao.findList(criteria));
+    }
+
+    public CompletableFuture<SeekPage<T>> findPageBySeek(Query query, SeekPageable seekPageable) {
+        return submit(dao -> dao.findPageBySeek(query, seekPageable));
+    }
+
+    public CompletableFuture<Integer> insert(T entity) {
+        return submit(dao -> dao.insert(entity));
+    }
+
+    public CompletableFuture<Integer> insertBatch(List<T> entityList) {
+        return submit(dao -> dao.insertBatch(entityList));
+    }
+
+    public CompletableFuture<Integer> update(T entity) {
+        return submit(dao -> dao.update(entity));
+    }
+
+    public CompletableFuture<Integer> updateById(Serializable id, Update update) {
+        return submit(dao -> dao.updateById(id, update));
+    }
+
+    public CompletableFuture<Integer> updateByIds(List<Serializable> ids, Update update) {
+        return submit(dao -> dao.updateByIds(ids, update));
+    }
+
+    public CompletableFuture<Integer> updateByCriteria(Criteria criteria, Update update) {
+        return submit(dao -> dao.updateByCriteria(criteria, update));
+    }
+
+    public CompletableFuture<Integer> deleteById(Serializable id) {
+        return submit(dao -> dao.deleteById(id));
+    }
+
+    /**
+     * 可以取消正在执行的语句的任务,由taskDecorator返回
+     */
+    public interface CancellableTask extends Runnable {
+        /**
+         * 取消任务中正在执行和之后要执行的语句,可以在任意线程调用,任务结束后调用无影响
+         */
+        void cancel();
+    }
+
+    /**
+     * cancel时同时取消线程池中的任务
+     */
+    private static final class TaskFuture<R> extends CompletableFuture<R> {
+        private volatile Future<?> task;
+        private volatile CancellableTask cancellable;
+        //取消时是否中断正在执行的任务
+        private volatile boolean interrupt;
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                interrupt = mayInterruptIfRunning;
+                this.abort();
+            }
+            return cancelled;
+        }
+
+        /**
+         * 取消线程池中的任务,需要中断时先中断线程再取消语句,被取消的语句不计入数据源的失败
+         */
+        private void abort() {
+            Future<?> t = task;
+            if (t != null) {
+                t.cancel(interrupt);
+            }
+            CancellableTask c = cancellable;
+            if (interrupt && c != null) {
+                c.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.yangjb.zorm.dao;
+
+import java.lang.reflect.Method;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异步dao使用的线程池,每个DaoSettings(即每组数据源)一个
+ * 线程数不超过连接池大小,队列有界,超出时拒绝,避免异步调用耗尽连接池
+ */
+public final class AsyncExecutors {
+    //未设置线程数且无法识别连接池大小时的默认线程数
+    private static final int DEFAULT_THREADS = 8;
+    //没有DaoSettings的dao(IBaseDao.async的默认实现)共用的线程池的队列大小
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+    //常见连接池获取最大连接数的方法:druid、dbcp为getMaxActive,dbcp2为getMaxTotal,hikari为getMaximumPoolSize
+    private static final String[] POOL_SIZE_METHODS = {"getMaxActive", "getMaxTotal", "getMaximumPoolSize"};
+
+    //DaoSettings重写了hashCode且可变,按对象引用区分
+    private static final Map<DaoSettings, ExecutorService> EXECUTORS = new IdentityHashMap<DaoSettings, ExecutorService>();
+    private static ExecutorService defaultExecutor;
+
+    private AsyncExecutors() {
+    }
+
+    /**
+     * 获取settings对应的线程池,第一次获取时创建
+     *
+     * @param daoSettings - 数据源设置
+     * @param threads     - 线程数,小于等于0时使用poolSource的连接池大小
+     * @param queueSize   - 等待队列大小
+     * @param poolSource  - 用于识别连接池大小的数据源,可以为null
+     * @return - 线程池
+     */
+    public static synchronized ExecutorService getExecutor(DaoSettings daoSettings, int threads, int queueSize, Object poolSource) {
+        ExecutorService executor = EXECUTORS.get(daoSettings);
+        if (executor == null) {
+            int n = threads > 0 ? threads : poolSize(poolSource);
+            executor = newExecutor(n, queueSize);
+            EXECUTORS.put(daoSettings, executor);
+        }
+        return executor;
+    }
+
+    /**
+     * 没有DaoSettings的dao共用的线程池,第一次获取时创建
+     *
+     * @return - 线程池
+     */
+    public static synchronized ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = newExecutor(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+        }
+        return defaultExecutor;
+    }
+
+    private static ExecutorService newExecutor(int threads, int queueSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(queueSize),
+                new AsyncThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 通过反射识别连接池的最大连接数,无法识别时返回默认线程数
+     */
+    static int poolSize(Object poolSource) {
+        if (poolSource == null) {
+            return DEFAULT_THREADS;
+        }
+        for (String methodName : POOL_SIZE_METHODS) {
+            try {
+                Method method = poolSource.getClass().getMethod(methodName);
+                Object size = method.invoke(poolSource);
+                if (size instanceof Number && ((Number) size).intValue() > 0) {
+                    return ((Number) size).intValue();
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                //不是该类型的连接池,继续尝试
+            }
+        }
+        return DEFAULT_THREADS;
+    }
+
+    private static final class AsyncThreadFactory implements ThreadFactory {
+        private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+        private final int poolNumber = POOL_NUMBER.incrementAndGet();
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "zorm-async-" + poolNumber + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
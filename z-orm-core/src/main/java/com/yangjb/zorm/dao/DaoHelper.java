@@ -1,6 +1,5 @@
 package com.yangjb.zorm.dao;
 
-import com.google.common.collect.Lists;
 import com.yangjb.zorm.annotation.Column;
 import com.yangjb.zorm.constant.DBConstant;
 import com.yangjb.zorm.exception.DaoException;
@@ -13,7 +12,8 @@ import org.apache.commons.lang3.StringUtils;
 import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 
 /**
@@ -28,19 +28,19 @@ public class DaoHelper {
 
     public static Update entity2Update(Object entity, List<String> propetyList) {
         Update update = new Update();
+        EntityAccessor entityAccessor = EntityAccessor.forClass(entity.getClass());
 
-        List<Field> fieldList = Lists.newArrayList();
-        fieldList.addAll(Arrays.asList(entity.getClass().getDeclaredFields()));
-
-
-        for (Field field : fieldList) {
-            if (isFinalOrStatic(field)) {
-                continue;
+        //propetyList为空所有属性都需要更新，否则只更新包含的属性
+        if (CollectionUtils.isEmpty(propetyList)) {
+            for (PropertyAccessor accessor : entityAccessor.getDeclaredPropertyAccessors()) {
+                update.set(accessor.getName(), accessor.get(entity));
             }
-            String propertyName = field.getName();
-            //propetyList为空所有属性都需要更新，否则只更新包含的属性
-            if (CollectionUtils.isEmpty(propetyList) || propetyList.contains(propertyName)) {
-                update.set(propertyName, getColumnValue(field, entity));
+        } else {
+            for (String propertyName : propetyList) {
+                PropertyAccessor accessor = entityAccessor.getDeclaredPropertyAccessor(propertyName);
+                if (accessor != null) {
+                    update.set(propertyName, accessor.get(entity));
+                }
             }
         }
 
@@ -55,12 +55,11 @@ public class DaoHelper {
      * @return - 返回filed值
      */
     public static Object getColumnValue(Field field, Object bean) {
-        field.setAccessible(true);
-        try {
-            return field.get(bean);
-        } catch (IllegalAccessException e) {
-            throw new DaoException("无法获取entity[" + bean + "]的属性[" + field.getName() + "]的值", e);
+        PropertyAccessor accessor = EntityAccessor.forClass(field.getDeclaringClass()).getDeclaredPropertyAccessor(field.getName());
+        if (accessor == null) {
+            throw new DaoException("无法获取entity[" + bean + "]的属性[" + field.getName() + "]的值");
         }
+        return accessor.get(bean);
     }
 
     /**
@@ -144,6 +143,16 @@ public class DaoHelper {
         checkArgumentId(ids.get(0));
     }
 
+    /**
+     * 去掉重复的id,保持原有顺序
+     *
+     * @param ids - id列表
+     * @return - 去重后的id列表
+     */
+    public static List<Serializable> distinctIds(List<Serializable> ids) {
+        return new ArrayList<Serializable>(new LinkedHashSet<Serializable>(ids));
+    }
+
     /**
      * 校验pageable
      */
@@ -153,6 +162,60 @@ public class DaoHelper {
         }
     }
 
+    /**
+     * 校验seekPageable
+     */
+    public static void checkArgumentSeekPageable(Query query, SeekPageable seekPageable) {
+        if (seekPageable == null) {
+            throw new DaoMethodParameterException("Param seekPageable must be not null");
+        }
+        if (CollectionUtils.isNotEmpty(query.getGroupBys())) {
+            throw new DaoMethodParameterException("Param query with group by can not use seek page");
+        }
+    }
+
+    /**
+     * jdbc游标分页使用的order by,没有按id排序时追加id升序保证顺序唯一;es使用_uid,不使用此方法
+     *
+     * @param orderBys - query中的order by
+     * @return - 游标分页的order by
+     */
+    public static List<OrderBy> seekOrderBys(List<OrderBy> orderBys) {
+        List<OrderBy> seekOrderBys = new ArrayList<OrderBy>(orderBys);
+        for (OrderBy orderBy : orderBys) {
+            if (DBConstant.PK_NAME.equals(orderBy.getKey())) {
+                return seekOrderBys;
+            }
+        }
+        seekOrderBys.add(OrderBy.asc(DBConstant.PK_NAME));
+        return seekOrderBys;
+    }
+
+    /**
+     * 取出entity中order by字段的值,用于生成游标分页token
+     * 值为null时无法用比较运算定位下一页(col > NULL不返回任何行),抛出DaoMethodParameterException,游标分页应使用非空字段排序
+     *
+     * @param entity   - 本页最后一个entity
+     * @param orderBys - 游标分页的order by
+     * @return - 按order by顺序的字段值
+     */
+    public static List<Object> seekValues(Object entity, List<OrderBy> orderBys) {
+        EntityAccessor entityAccessor = EntityAccessor.forClass(entity.getClass());
+        List<Object> values = new ArrayList<Object>(orderBys.size());
+        for (OrderBy orderBy : orderBys) {
+            PropertyAccessor accessor = entityAccessor.getPropertyAccessor(orderBy.getKey());
+            if (accessor == null) {
+                throw new DaoMethodParameterException("Param orderBy key[" + orderBy.getKey() + "] is not a property of " + entity.getClass().getSimpleName());
+            }
+            Object value = accessor.get(entity);
+            if (value == null) {
+                throw new DaoMethodParameterException("Param orderBy key[" + orderBy.getKey() + "] is null, seek page requires not null order by properties");
+            }
+            values.add(value);
+        }
+        return values;
+    }
+
     /**
      * 校验fields
      */
@@ -189,6 +252,18 @@ public class DaoHelper {
         }
     }
 
+    /**
+     * 批量操作前的校验
+     */
+    public static void checkArgumentEntityList(List<?> entityList) {
+        if (CollectionUtils.isEmpty(entityList)) {
+            throw new DaoMethodParameterException("Param entityList must be not null and empty");
+        }
+        for (Object entity : entityList) {
+            checkArgumentEntity(entity);
+        }
+    }
+
     /**
      * 更新操作前的校验
      */
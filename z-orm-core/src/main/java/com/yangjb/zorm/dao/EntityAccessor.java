@@ -0,0 +1,128 @@
+package com.yangjb.zorm.dao;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import com.yangjb.zorm.exception.DaoException;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * entity所有属性的读写器,每个entity class只创建一次
+ * 替代每次操作时getDeclaredFields、setAccessible和Field.get的反射开销
+ */
+public final class EntityAccessor {
+    //保存在Class上,不会阻止entity所在的classloader被回收
+    private static final ClassValue<EntityAccessor> ACCESSOR_CACHE = new ClassValue<EntityAccessor>() {
+        @Override
+        protected EntityAccessor computeValue(Class<?> entityClass) {
+            return new EntityAccessor(entityClass);
+        }
+    };
+
+    //本类声明的属性,按声明顺序
+    private final List<PropertyAccessor> declaredPropertyAccessors;
+    //本类声明的属性名到读写器映射
+    private final Map<String, PropertyAccessor> declaredPropertyAccessorMapper;
+    //本类及父类的属性名到读写器映射,本类属性优先
+    private final Map<String, PropertyAccessor> propertyAccessorMapper;
+    //无参构造器,没有时为null
+    private final Constructor<?> constructor;
+
+    private EntityAccessor(Class<?> entityClass) {
+        ImmutableList.Builder<PropertyAccessor> declaredBuilder = ImmutableList.builder();
+        LinkedHashMap<String, PropertyAccessor> declaredMapper = Maps.newLinkedHashMap();
+        LinkedHashMap<String, PropertyAccessor> allMapper = Maps.newLinkedHashMap();
+
+        for (Field field : entityClass.getDeclaredFields()) {
+            if (DaoHelper.isFinalOrStatic(field)) {
+                continue;
+            }
+            PropertyAccessor accessor = new PropertyAccessor(field);
+            declaredBuilder.add(accessor);
+            declaredMapper.put(field.getName(), accessor);
+            allMapper.put(field.getName(), accessor);
+        }
+
+        for (Class<?> clazz = entityClass.getSuperclass(); clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            for (Field field : clazz.getDeclaredFields()) {
+                if (DaoHelper.isFinalOrStatic(field) || allMapper.containsKey(field.getName())) {
+                    continue;
+                }
+                allMapper.put(field.getName(), new PropertyAccessor(field));
+            }
+        }
+
+        this.declaredPropertyAccessors = declaredBuilder.build();
+        this.declaredPropertyAccessorMapper = ImmutableMap.copyOf(declaredMapper);
+        this.propertyAccessorMapper = ImmutableMap.copyOf(allMapper);
+
+        Constructor<?> noArgConstructor;
+        try {
+            noArgConstructor = entityClass.getDeclaredConstructor();
+            noArgConstructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            noArgConstructor = null;
+        }
+        this.constructor = noArgConstructor;
+    }
+
+    /**
+     * 获取entity class对应的读写器,同一个class只创建一次
+     *
+     * @param entityClass - entityClass
+     * @return - EntityAccessor
+     */
+    public static EntityAccessor forClass(Class<?> entityClass) {
+        return ACCESSOR_CACHE.get(entityClass);
+    }
+
+    /**
+     * 本类声明的非static、非final属性,按声明顺序
+     */
+    public List<PropertyAccessor> getDeclaredPropertyAccessors() {
+        return declaredPropertyAccessors;
+    }
+
+    /**
+     * 本类声明的属性对应的读写器,不存在返回null
+     */
+    public PropertyAccessor getDeclaredPropertyAccessor(String propertyName) {
+        return declaredPropertyAccessorMapper.get(propertyName);
+    }
+
+    /**
+     * 本类及父类属性对应的读写器,不存在返回null
+     */
+    public PropertyAccessor getPropertyAccessor(String propertyName) {
+        return propertyAccessorMapper.get(propertyName);
+    }
+
+    /**
+     * 浅拷贝bean的本类及父类所有属性到一个新对象
+     *
+     * @param bean - 对应的bean,class必须和forClass的class一致
+     * @return - 新对象
+     */
+    @SuppressWarnings("unchecked")
+    public <B> B copy(B bean) {
+        if (constructor == null) {
+            throw new DaoException("entity[" + bean.getClass().getName() + "]必须有无参构造器");
+        }
+        B target;
+        try {
+            target = (B) constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new DaoException("无法创建entity[" + bean.getClass().getName() + "]", e);
+        }
+        for (PropertyAccessor accessor : propertyAccessorMapper.values()) {
+            accessor.set(target, accessor.get(bean));
+        }
+        return target;
+    }
+}
@@ -0,0 +1,223 @@
+package com.yangjb.zorm.dao;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 按id缓存entity的二级缓存,每个dao一个实例
+ * 基于guava Cache(分段LRU),按最大条数和写入后过期时间淘汰
+ * 缓存中保存entity的拷贝,读取时也返回拷贝,调用方修改返回的对象不会影响缓存
+ * 写操作之后调用invalidate,每次invalidate增加generation,加载期间generation变化的结果不放入缓存,避免并发时缓存旧值
+ * 设置了quietMillis时,invalidate后quietMillis内加载的结果也不放入缓存:加载可能读到复制延迟中的读库上写之前的数据
+ */
+public final class EntityCache<T> {
+    private final Cache<String, T> cache;
+    private final EntityAccessor entityAccessor;
+    private final AtomicLong generation = new AtomicLong();
+    private final long quietMillis;
+    //quietMillis内invalidate过的key,quietMillis为0时为null
+    private final Cache<String, Boolean> recentInvalidations;
+    //最后一次invalidateAll的时间
+    private volatile long lastInvalidateAllMillis;
+
+    private EntityCache(Class<T> entityClass, long maximumSize, long expireSeconds, long quietMillis) {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats();
+        if (expireSeconds > 0) {
+            builder.expireAfterWrite(expireSeconds, TimeUnit.SECONDS);
+        }
+        this.cache = builder.build();
+        this.entityAccessor = EntityAccessor.forClass(entityClass);
+        this.quietMillis = quietMillis;
+        this.recentInvalidations = quietMillis > 0
+                ? CacheBuilder.newBuilder().maximumSize(maximumSize).expireAfterWrite(quietMillis, TimeUnit.MILLISECONDS).<String, Boolean>build() : null;
+    }
+
+    /**
+     * 创建缓存,maximumSize小于等于0时不开启缓存返回null
+     *
+     * @param entityClass   - entityClass
+     * @param maximumSize   - 最大条数
+     * @param expireSeconds - 写入后过期的秒数,小于等于0表示不过期
+     * @return - 缓存或null
+     */
+    public static <T> EntityCache<T> create(Class<T> entityClass, long maximumSize, long expireSeconds) {
+        return create(entityClass, maximumSize, expireSeconds, 0);
+    }
+
+    /**
+     * 创建缓存,maximumSize小于等于0时不开启缓存返回null
+     *
+     * @param entityClass   - entityClass
+     * @param maximumSize   - 最大条数
+     * @param expireSeconds - 写入后过期的秒数,小于等于0表示不过期
+     * @param quietMillis   - invalidate后多少毫秒内加载的结果不放入缓存,应不小于读库的复制延迟,0表示不限制
+     * @return - 缓存或null
+     */
+    public static <T> EntityCache<T> create(Class<T> entityClass, long maximumSize, long expireSeconds, long quietMillis) {
+        if (maximumSize <= 0) {
+            return null;
+        }
+        return new EntityCache<T>(entityClass, maximumSize, expireSeconds, quietMillis);
+    }
+
+    /**
+     * 按id读取,未命中时调用loader加载并放入缓存
+     *
+     * @param id     - id
+     * @param loader - 从数据库加载,不存在返回null
+     * @return - entity的拷贝,不存在返回null
+     */
+    public T get(Serializable id, Function<Serializable, T> loader) {
+        String key = key(id);
+        T entity = cache.getIfPresent(key);
+        if (entity != null) {
+            return entityAccessor.copy(entity);
+        }
+
+        long start = generation.get();
+        entity = loader.apply(id);
+        if (entity != null) {
+            this.put(key, entity, start);
+        }
+        return entity;
+    }
+
+    /**
+     * 按id批量读取,未命中的id调用loader一次加载并放入缓存
+     *
+     * @param ids      - 不重复的id列表
+     * @param loader   - 从数据库批量加载,可以返回null
+     * @param idGetter - 获取entity的id
+     * @return - 按ids顺序的entity拷贝,不存在的id忽略
+     */
+    public List<T> getAll(List<Serializable> ids, Function<List<Serializable>, List<T>> loader, Function<T, Serializable> idGetter) {
+        Map<String, T> entityMapper = Maps.newHashMapWithExpectedSize(ids.size());
+        List<Serializable> missIds = Lists.newArrayList();
+        for (Serializable id : ids) {
+            String key = key(id);
+            T entity = cache.getIfPresent(key);
+            if (entity == null) {
+                missIds.add(id);
+            } else {
+                entityMapper.put(key, entityAccessor.copy(entity));
+            }
+        }
+
+        if (!missIds.isEmpty()) {
+            long start = generation.get();
+            List<T> loadedList = loader.apply(missIds);
+            if (loadedList != null) {
+                for (T entity : loadedList) {
+                    String key = key(idGetter.apply(entity));
+                    entityMapper.put(key, entity);
+                    this.put(key, entity, start);
+                }
+            }
+        }
+
+        List<T> entityList = Lists.newArrayListWithCapacity(entityMapper.size());
+        for (Serializable id : ids) {
+            T entity = entityMapper.get(key(id));
+            if (entity != null) {
+                entityList.add(entity);
+            }
+        }
+        return entityList;
+    }
+
+    /**
+     * 加载期间没有发生invalidate时才放入缓存
+     * invalidate先增加generation再删除key,检查和放入之间发生的invalidate可能先于放入删除key,
+     * 放入后再次检查generation,变化时删除本次放入的值(已被其他线程替换的值不删除)
+     */
+    private void put(String key, T entity, long start) {
+        if (generation.get() != start || this.isQuiet(key)) {
+            return;
+        }
+        T copy = entityAccessor.copy(entity);
+        cache.put(key, copy);
+        if (generation.get() != start) {
+            cache.asMap().remove(key, copy);
+        }
+    }
+
+    /**
+     * key在quietMillis内被invalidate过,此时加载的结果可能来自尚未复制到写操作的读库
+     */
+    private boolean isQuiet(String key) {
+        if (recentInvalidations == null) {
+            return false;
+        }
+        return System.currentTimeMillis() - lastInvalidateAllMillis < quietMillis || recentInvalidations.getIfPresent(key) != null;
+    }
+
+    public void invalidate(Serializable id) {
+        generation.incrementAndGet();
+        String key = key(id);
+        if (recentInvalidations != null) {
+            recentInvalidations.put(key, Boolean.TRUE);
+        }
+        cache.invalidate(key);
+    }
+
+    public void invalidate(Collection<? extends Serializable> ids) {
+        generation.incrementAndGet();
+        for (Serializable id : ids) {
+            String key = key(id);
+            if (recentInvalidations != null) {
+                recentInvalidations.put(key, Boolean.TRUE);
+            }
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * 无法确定影响哪些id的写操作(按条件或sql更新)清空整个缓存
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        lastInvalidateAllMillis = System.currentTimeMillis();
+        cache.invalidateAll();
+    }
+
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    /**
+     * 因超过最大条数或过期被淘汰的条数,不包含invalidate
+     */
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    @Override
+    public String toString() {
+        return "EntityCache[size=" + size() + ", hitCount=" + getHitCount() + ", missCount=" + getMissCount() + ", evictionCount=" + getEvictionCount() + "]";
+    }
+
+    /**
+     * Long和Integer等不同类型的相同id对应同一个key
+     */
+    private static String key(Serializable id) {
+        return String.valueOf(id);
+    }
+}
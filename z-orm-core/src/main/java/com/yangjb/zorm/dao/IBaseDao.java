@@ -1,9 +1,11 @@
 package com.yangjb.zorm.dao;
 
 import com.yangjb.zorm.exception.DaoException;
+import com.yangjb.zorm.exception.DaoMethodParameterException;
 import com.yangjb.zorm.query.*;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 
@@ -45,14 +47,52 @@ public interface IBaseDao<T> {
 
     List<T> findListBySql(String sql, LinkedHashMap<String, Object> param) throws DaoException;
 
+    //游标分页,按query的order by(自动追加id)定位上一页最后一行之后的数据,order by字段的值不能为null
+    //默认实现退化为按页码分页,token中是下一页的页码:翻页期间有插入删除时可能重复或遗漏,最后一页满页时下一页为空
+    default SeekPage<T> findPageBySeek(Query query, SeekPageable seekPageable) throws DaoException {
+        int pageNumber = 1;
+        if (seekPageable.getToken() != null && !seekPageable.getToken().isEmpty()) {
+            List<Object> values = SeekToken.decode(seekPageable.getToken());
+            if (values.size() != 1 || !(values.get(0) instanceof Integer)) {
+                throw new DaoMethodParameterException("Param token was " + seekPageable.getToken() + ", It is invalid");
+            }
+            pageNumber = (Integer) values.get(0);
+        }
+        List<T> content = this.findListByQuery(query, new Pageable(pageNumber, seekPageable.getPageSize()));
+        String nextToken = content.size() < seekPageable.getPageSize() ? null : SeekToken.encode(Collections.<Object>singletonList(pageNumber + 1));
+        return new SeekPage<T>(content, nextToken);
+    }
+
     int insert(T entity) throws DaoException;
 
+    //批量插入,插入后的id会设置回每个entity
+    //按batchSize分批执行,不在事物中时每批单独提交:后面的批次失败时前面的批次已经提交,需要全部成功或全部失败时在事物中调用
+    //默认实现逐个调用insert
+    default int insertBatch(List<T> entityList) throws DaoException {
+        int n = 0;
+        for (T entity : entityList) {
+            n += this.insert(entity);
+        }
+        return n;
+    }
+
     //更新实体所有属性
     int update(T entity) throws DaoException;
 
     //更新实体中指定的属性
     int update(T entity, List<String> propetyList) throws DaoException;
 
+    //批量更新实体中指定的属性,propetyList为空时更新所有属性,返回每个实体对应的影响行数
+    //和insertBatch一样分批执行,不在事物中时失败前的批次已经提交
+    //默认实现逐个调用update
+    default int[] updateBatch(List<T> entityList, List<String> propetyList) throws DaoException {
+        int[] counts = new int[entityList.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = propetyList == null || propetyList.isEmpty() ? this.update(entityList.get(i)) : this.update(entityList.get(i), propetyList);
+        }
+        return counts;
+    }
+
     int updateById(Serializable id, Update update) throws DaoException;
 
     int updateByIds(List<Serializable> ids, Update update) throws DaoException;
@@ -89,4 +129,12 @@ public interface IBaseDao<T> {
 
     List<T> findAllList(List<OrderBy> orderBys, Pageable pageable) throws DaoException;
 
+    /**
+     * 返回该dao的异步视图,在数据源对应的有界线程池中执行
+     * 默认实现使用共用的线程池,无法判断调用线程是否在事物中
+     */
+    default AsyncBaseDao<T> async() {
+        return new AsyncBaseDao<T>(this, AsyncExecutors.getDefaultExecutor(), () -> false);
+    }
+
 }
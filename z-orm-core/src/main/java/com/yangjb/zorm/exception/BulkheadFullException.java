@@ -0,0 +1,17 @@
+package com.yangjb.zorm.exception;
+
+/**
+ * 舱壁已满异常:分区的并发数和等待队列都已满,或等待超时
+ * 调用方可以降级或稍后重试,不会占用连接池
+ */
+@SuppressWarnings("serial")
+public class BulkheadFullException extends DaoException {
+
+    public BulkheadFullException(String message) {
+        super(message);
+    }
+
+    public BulkheadFullException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
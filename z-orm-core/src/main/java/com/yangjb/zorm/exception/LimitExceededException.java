@@ -0,0 +1,17 @@
+package com.yangjb.zorm.exception;
+
+/**
+ * 数据源并发数超过自适应上限,请求被直接拒绝
+ * 调用方可以降级或稍后重试,不会占用连接池
+ */
+@SuppressWarnings("serial")
+public class LimitExceededException extends DaoException {
+
+    public LimitExceededException(String message) {
+        super(message);
+    }
+
+    public LimitExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
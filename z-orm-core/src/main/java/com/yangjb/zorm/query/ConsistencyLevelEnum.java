@@ -0,0 +1,23 @@
+package com.yangjb.zorm.query;
+
+/**
+ * 读一致性级别,决定读操作路由到写库还是读库
+ */
+public enum ConsistencyLevelEnum {
+    /**
+     * 最终一致,按负载均衡策略读任意读库
+     */
+    EVENTUAL,
+    /**
+     * 强一致,读写库
+     */
+    STRONG,
+    /**
+     * 读自己的写,当前线程写过该表后的一段时间内读写库,之后读读库
+     */
+    READ_YOUR_WRITES,
+    /**
+     * 有界延迟,只读复制延迟不超过指定毫秒数的读库,没有满足条件的读库时读写库
+     */
+    BOUNDED_STALENESS
+}
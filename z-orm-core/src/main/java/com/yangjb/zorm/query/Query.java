@@ -36,6 +36,26 @@ public class Query {
      * 针对mybatis的statmentId
      */
     private String sqlId;
+    /**
+     * 读一致性级别,不设置时使用当前作用域或数据源的默认级别
+     */
+    private ConsistencyLevelEnum consistencyLevel;
+    /**
+     * BOUNDED_STALENESS允许的最大复制延迟毫秒数,0表示使用默认值
+     */
+    private long maxStalenessMillis;
+    /**
+     * 舱壁分区名,不设置时使用dao的分区
+     */
+    private String bulkhead;
+    /**
+     * 是否对冲读
+     */
+    private boolean hedgedRead;
+    /**
+     * 负载类型,不设置时使用dao的负载类型
+     */
+    private String workload;
 
     private Query() {
     }
@@ -100,6 +120,55 @@ public class Query {
         return this;
     }
 
+    public Query withConsistency(ConsistencyLevelEnum consistencyLevel) {
+        Preconditions.checkArgument(consistencyLevel != null, "Param consistencyLevel must be not null");
+        this.consistencyLevel = consistencyLevel;
+        return this;
+    }
+
+    /**
+     * 只读复制延迟不超过maxStalenessMillis的读库
+     *
+     * @param maxStalenessMillis - 允许的最大复制延迟毫秒数
+     */
+    public Query withMaxStaleness(long maxStalenessMillis) {
+        Preconditions.checkArgument(maxStalenessMillis > 0, "Param maxStalenessMillis was %s, It must be greater than 0", maxStalenessMillis);
+        this.consistencyLevel = ConsistencyLevelEnum.BOUNDED_STALENESS;
+        this.maxStalenessMillis = maxStalenessMillis;
+        return this;
+    }
+
+    /**
+     * 在指定的舱壁分区中执行,分区已满时抛出BulkheadFullException
+     *
+     * @param bulkhead - 分区名
+     */
+    public Query withBulkhead(String bulkhead) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(bulkhead), "Param bulkhead was %s, It must be not null or empty", bulkhead);
+        this.bulkhead = bulkhead;
+        return this;
+    }
+
+    /**
+     * 对冲读:第一个读库超过延迟百分位未返回时在另一个读库上再查询一次,使用先返回的结果,只支持jdbc
+     * 适用于对长尾延迟敏感的按主键查询
+     */
+    public Query withHedgedRead() {
+        this.hedgedRead = true;
+        return this;
+    }
+
+    /**
+     * 按负载类型选择读库组,组内读库不可用或未配置时使用默认读库,只支持jdbc
+     *
+     * @param workload - 负载类型,对应JdbcSettings.readGroups
+     */
+    public Query withWorkload(String workload) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(workload), "Param workload was %s, It must be not null or empty", workload);
+        this.workload = workload;
+        return this;
+    }
+
     public Criteria getCriteria() {
         return criteria;
     }
@@ -132,6 +201,26 @@ public class Query {
         return offset;
     }
 
+    public ConsistencyLevelEnum getConsistencyLevel() {
+        return consistencyLevel;
+    }
+
+    public long getMaxStalenessMillis() {
+        return maxStalenessMillis;
+    }
+
+    public String getBulkhead() {
+        return bulkhead;
+    }
+
+    public boolean isHedgedRead() {
+        return hedgedRead;
+    }
+
+    public String getWorkload() {
+        return workload;
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
@@ -156,6 +245,18 @@ public class Query {
         builder.append(hint);
         builder.append(", sqlId=");
         builder.append(sqlId);
+        if (consistencyLevel != null) {
+            builder.append(", consistencyLevel=");
+            builder.append(consistencyLevel);
+        }
+        if (bulkhead != null) {
+            builder.append(", bulkhead=");
+            builder.append(bulkhead);
+        }
+        if (workload != null) {
+            builder.append(", workload=");
+            builder.append(workload);
+        }
         builder.append("]");
         return builder.toString();
     }
@@ -0,0 +1,37 @@
+package com.yangjb.zorm.query;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 基于游标(keyset)的分页结果
+ */
+public class SeekPage<T> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final List<T> content;
+    private final String nextToken;
+
+    public SeekPage(List<T> content, String nextToken) {
+        this.content = content;
+        this.nextToken = nextToken;
+    }
+
+    /**
+     * 本页数据,没有数据时为空列表
+     */
+    public List<T> getContent() {
+        return content;
+    }
+
+    /**
+     * 下一页的游标,没有下一页时为null
+     */
+    public String getNextToken() {
+        return nextToken;
+    }
+
+    public boolean hasNext() {
+        return nextToken != null;
+    }
+}
@@ -0,0 +1,53 @@
+package com.yangjb.zorm.query;
+
+import java.io.Serializable;
+
+/**
+ * 基于游标(keyset)的分页信息
+ * 通过上一页最后一行的order by字段值定位下一页,深度翻页和第一页代价相同
+ * token为空表示第一页,之后使用上一页返回的SeekPage.nextToken
+ */
+public class SeekPageable implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private int pageSize;
+    private String token;
+
+    public SeekPageable() {
+        this(DEFAULT_PAGE_SIZE, null);
+    }
+
+    public SeekPageable(int pageSize) {
+        this(pageSize, null);
+    }
+
+    public SeekPageable(int pageSize, String token) {
+        setPageSize(pageSize);
+        this.token = token;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        if (pageSize < 1) {
+            pageSize = DEFAULT_PAGE_SIZE;
+        }
+        if (pageSize > MAX_PAGE_SIZE) {
+            pageSize = MAX_PAGE_SIZE;
+        }
+        this.pageSize = pageSize;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+}
@@ -0,0 +1,137 @@
+package com.yangjb.zorm.query;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 游标分页token的编解码
+ * token只包含上一页最后一行order by字段的类型和值,不使用java序列化,可以安全地交给客户端
+ * Timestamp按毫秒和纳秒编码,解码后仍是精度相同的Timestamp
+ */
+public final class SeekToken {
+    private static final BaseEncoding ENCODING = BaseEncoding.base64Url().omitPadding();
+    private static final char SEPARATOR = '.';
+    private static final char NANOS_SEPARATOR = ',';
+
+    private SeekToken() {
+    }
+
+    /**
+     * 将order by字段值编码为token
+     *
+     * @param values - 按order by顺序的字段值
+     * @return - token
+     */
+    public static String encode(List<Object> values) {
+        StringBuilder sb = new StringBuilder();
+        for (Object value : values) {
+            if (sb.length() > 0) {
+                sb.append(SEPARATOR);
+            }
+            sb.append(typeOf(value));
+            if (value != null) {
+                sb.append(ENCODING.encode(toString(value).getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+        return ENCODING.encode(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 将token解码为order by字段值
+     *
+     * @param token - encode生成的token
+     * @return - 按order by顺序的字段值
+     */
+    public static List<Object> decode(String token) {
+        List<Object> values = Lists.newArrayList();
+        try {
+            String content = new String(ENCODING.decode(token), StandardCharsets.UTF_8);
+            for (String item : Splitter.on(SEPARATOR).split(content)) {
+                Preconditions.checkArgument(!item.isEmpty(), "Param token was %s, It is invalid", token);
+                char type = item.charAt(0);
+                String str = new String(ENCODING.decode(item.substring(1)), StandardCharsets.UTF_8);
+                values.add(valueOf(type, str));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Param token was " + token + ", It is invalid", e);
+        }
+        return values;
+    }
+
+    private static String toString(Object value) {
+        if (value instanceof Timestamp) {
+            return Long.toString(((Timestamp) value).getTime()) + NANOS_SEPARATOR + ((Timestamp) value).getNanos();
+        } else if (value instanceof Date) {
+            return Long.toString(((Date) value).getTime());
+        }
+        return value.toString();
+    }
+
+    private static char typeOf(Object value) {
+        if (value == null) {
+            return 'n';
+        } else if (value instanceof Long) {
+            return 'l';
+        } else if (value instanceof Integer) {
+            return 'i';
+        } else if (value instanceof Short) {
+            return 'h';
+        } else if (value instanceof Double) {
+            return 'd';
+        } else if (value instanceof Float) {
+            return 'f';
+        } else if (value instanceof BigDecimal) {
+            return 'm';
+        } else if (value instanceof String) {
+            return 's';
+        } else if (value instanceof Boolean) {
+            return 'b';
+        } else if (value instanceof Timestamp) {
+            return 'p';
+        } else if (value instanceof Date) {
+            return 't';
+        }
+        throw new IllegalArgumentException("Seek value type " + value.getClass().getName() + " is not supported");
+    }
+
+    private static Object valueOf(char type, String str) {
+        switch (type) {
+            case 'n':
+                return null;
+            case 'l':
+                return Long.valueOf(str);
+            case 'i':
+                return Integer.valueOf(str);
+            case 'h':
+                return Short.valueOf(str);
+            case 'd':
+                return Double.valueOf(str);
+            case 'f':
+                return Float.valueOf(str);
+            case 'm':
+                return new BigDecimal(str);
+            case 's':
+                return str;
+            case 'b':
+                return Boolean.valueOf(str);
+            case 't':
+                return new Date(Long.parseLong(str));
+            case 'p':
+                int index = str.indexOf(NANOS_SEPARATOR);
+                Preconditions.checkArgument(index > 0, "Seek timestamp %s is invalid", str);
+                Timestamp timestamp = new Timestamp(Long.parseLong(str.substring(0, index)));
+                timestamp.setNanos(Integer.parseInt(str.substring(index + 1)));
+                return timestamp;
+            default:
+                throw new IllegalArgumentException("Seek value type " + type + " is not supported");
+        }
+    }
+}
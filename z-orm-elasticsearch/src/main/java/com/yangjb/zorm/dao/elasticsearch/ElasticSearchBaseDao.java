@@ -3,7 +3,10 @@ package com.yangjb.zorm.dao.elasticsearch;
 import com.google.common.collect.Lists;
 import com.yangjb.zorm.annotation.DaoDescription;
 import com.yangjb.zorm.constant.DBConstant;
+import com.yangjb.zorm.dao.AsyncBaseDao;
+import com.yangjb.zorm.dao.AsyncExecutors;
 import com.yangjb.zorm.dao.DaoHelper;
+import com.yangjb.zorm.dao.EntityCache;
 import com.yangjb.zorm.dao.IBaseDao;
 import com.yangjb.zorm.dao.elasticsearch.annotation.Document;
 import com.yangjb.zorm.entity.StringIdEntity;
@@ -19,6 +22,9 @@ import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.DocWriteResponse;
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
 import org.elasticsearch.action.admin.indices.refresh.RefreshResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.get.MultiGetItemResponse;
@@ -33,6 +39,7 @@ import org.elasticsearch.client.Client;
 import org.elasticsearch.common.lucene.uid.Versions;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.engine.VersionConflictEngineException;
+import org.elasticsearch.index.mapper.UidFieldMapper;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
@@ -52,6 +59,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import static com.yangjb.zorm.constant.MixedConstant.*;
 import static com.yangjb.zorm.dao.DaoHelper.*;
@@ -74,16 +82,28 @@ public abstract class ElasticSearchBaseDao<T> implements ApplicationContextAware
     private boolean hasEsVersionFiled;  //含有es的version字段可使用ES的带版本更新
     private List<String> notNeedTransientPropertyList = Lists.newArrayList();   //不需要持久化的字段
     private ApplicationContext applicationContext;
+    private EntityCache<T> entityCache;
+    private volatile AsyncBaseDao<T> asyncBaseDao;
 
     @Override
     public Class<T> getGenericClass() {
         return this.entityClass;
     }
 
+    /**
+     * 该dao的二级缓存,未开启时为null
+     */
+    public EntityCache<T> getEntityCache() {
+        return entityCache;
+    }
+
     @Override
     public boolean exists(Serializable id) throws DaoException {
         checkArgumentId(id);
 
+        if (entityCache != null) {
+            return null != this.findOneById(id);
+        }
         return this.exists(Criteria.where(DBConstant.PK_NAME, id));
     }
 
@@ -187,6 +207,13 @@ public abstract class ElasticSearchBaseDao<T> implements ApplicationContextAware
     public T findOneById(Serializable id) throws DaoException {
         checkArgumentId(id);
 
+        if (entityCache != null) {
+            return entityCache.get(id, this::getById);
+        }
+        return this.getById(id);
+    }
+
+    private T getById(Serializable id) {
         try {
             Client client = ElasticSearchClientFactory.INSTANCE.getClient(elasticSearchSettings);
             GetResponse response = client.prepareGet()
@@ -262,6 +289,13 @@ public abstract class ElasticSearchBaseDao<T> implements ApplicationContextAware
     public List<T> findListByIds(List<Serializable> ids) throws DaoException {
         checkArgumentIds(ids);
 
+        if (entityCache != null) {
+            return entityCache.getAll(distinctIds(ids), this::multiGetByIds, entity -> ((StringIdEntity) entity).getId());
+        }
+        return this.multiGetByIds(ids);
+    }
+
+    private List<T> multiGetByIds(List<Serializable> ids) {
         try {
             Client client = ElasticSearchClientFactory.INSTANCE.getClient(elasticSearchSettings);
             MultiGetResponse multiGetItemResponses = client.prepareMultiGet()
@@ -343,6 +377,63 @@ public abstract class ElasticSearchBaseDao<T> implements ApplicationContextAware
         return this.findListByQuery(query);
     }
 
+    @Override
+    public SeekPage<T> findPageBySeek(Query query, SeekPageable seekPageable) throws DaoException {
+        checkArgumentQuery(query);
+        checkArgumentSeekPageable(query, seekPageable);
+
+        int pageSize = seekPageable.getPageSize();
+        try {
+            Client client = ElasticSearchClientFactory.INSTANCE.getClient(elasticSearchSettings);
+            String[] includes = includeFileds(query.getFields());
+            String[] excludes = EMPTY_STRING_ARRAY;
+            SearchRequestBuilder searchRequestBuilder = client.prepareSearch()
+                    .setIndices(index)
+                    .setTypes(type)
+                    .setFetchSource(includes, excludes)
+                    .setSize(pageSize + INT_1);    //多取一条判断是否还有下一页
+
+            QueryBuilder queryBuilder = criteria2QueryBuilder(query.getCriteria());
+            if (queryBuilder != null) {
+                searchRequestBuilder.setQuery(queryBuilder);
+            }
+            List<OrderBy> orderBys = query.getOrderBys();
+            for (OrderBy orderBy : orderBys) {
+                SortOrder order = OrderBy.Direction.ASC.getDirection().equals(orderBy.getDirection()) ? SortOrder.ASC : SortOrder.DESC;
+                searchRequestBuilder.addSort(orderBy.getKey(), order);
+            }
+            //自动生成id的文档_source中没有id字段,最后按_uid排序保证顺序唯一,token中包含_uid
+            searchRequestBuilder.addSort(UidFieldMapper.NAME, SortOrder.ASC);
+            //es使用search_after定位上一页最后一条
+            if (StringUtils.isNotBlank(seekPageable.getToken())) {
+                List<Object> seekValues = SeekToken.decode(seekPageable.getToken());
+                if (seekValues.size() != orderBys.size() + INT_1) {
+                    throw new DaoMethodParameterException("Param token does not match the order by of query");
+                }
+                searchRequestBuilder.searchAfter(seekValues.toArray());
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("findPageBySeek searchRequestBuilder:" + searchRequestBuilder.toString());
+            }
+            SearchResponse searchResponse = searchRequestBuilder.get();
+            SearchHit[] hits = searchResponse.getHits().getHits();
+
+            List<T> entityList = Lists.newArrayList();
+            for (int i = INT_0; i < hits.length && i < pageSize; i++) {
+                String source = setEsVersion(hits[i], hasEsVersionFiled);
+                entityList.add(FastJson.jsonStr2Object(source, entityClass));
+            }
+            String nextToken = null;
+            if (hits.length > pageSize) {
+                nextToken = SeekToken.encode(Arrays.asList(hits[pageSize - INT_1].getSortValues()));
+            }
+            return new SeekPage<T>(entityList, nextToken);
+        } catch (RuntimeException e) {
+            throw DaoExceptionTranslator.translate(e);
+        }
+    }
+
     @Override
     public List<T> findListBySql(String sql, LinkedHashMap<String, Object> param) throws DaoException {
         checkArgument(sql);
@@ -408,7 +499,7 @@ public abstract class ElasticSearchBaseDao<T> implements ApplicationContextAware
                 indexRequestBuilder.setId(id).setCreate(true);
             }
 
-            String sourceJsonStr = getSourceJsonStrWhenInsert(entity, hasEsVersionFiled, notNeedTransientPropertyList);
+            String sourceJsonStr = getSourceJsonStrWhenInsert(entity, notNeedTransientPropertyList);
             indexRequestBuilder.setSource(sourceJsonStr, XContentType.JSON);
 
             IndexResponse indexResponse = indexRequestBuilder.get();
@@ -433,6 +524,53 @@ public abstract class ElasticSearchBaseDao<T> implements ApplicationContextAware
         }
     }
 
+    @Override
+    public int insertBatch(List<T> entityList) throws DaoException {
+        checkArgumentEntityList(entityList);
+
+        try {
+            Client client = ElasticSearchClientFactory.INSTANCE.getClient(elasticSearchSettings);
+            BulkRequestBuilder bulkRequestBuilder = client.prepareBulk();
+            for (T entity : entityList) {
+                String id = ((StringIdEntity) entity).getId();
+                IndexRequestBuilder indexRequestBuilder = client.prepareIndex(index, type);
+                if (StringUtils.isNotBlank(id)) {
+                    indexRequestBuilder.setId(id).setCreate(true);
+                }
+                String sourceJsonStr = getSourceJsonStrWhenInsert(entity, notNeedTransientPropertyList);
+                indexRequestBuilder.setSource(sourceJsonStr, XContentType.JSON);
+                bulkRequestBuilder.add(indexRequestBuilder);
+            }
+
+            BulkResponse bulkResponse = bulkRequestBuilder.get();
+
+            /**
+             * 插入完成后把es自动生成的id和version设置回entity,bulk的返回和请求顺序一致
+             */
+            int n = INT_0;
+            BulkItemResponse[] items = bulkResponse.getItems();
+            for (int i = INT_0; i < items.length; i++) {
+                if (items[i].isFailed()) {
+                    continue;
+                }
+                T entity = entityList.get(i);
+                StringIdEntity stringIdEntity = (StringIdEntity) entity;
+                if (StringUtils.isBlank(stringIdEntity.getId())) {
+                    stringIdEntity.setId(items[i].getId());
+                }
+                setEsVersion(entity, items[i].getVersion(), hasEsVersionFiled);
+                n++;
+            }
+
+            if (bulkResponse.hasFailures()) {
+                throw new DaoException("insertBatch部分失败,成功" + n + "条[" + bulkResponse.buildFailureMessage() + "]");
+            }
+            return n;
+        } catch (RuntimeException e) {
+            throw DaoExceptionTranslator.translate(e);
+        }
+    }
+
     @Override
     public int update(T entity) throws DaoException {
         checkArgumentEntity(entity);
@@ -448,10 +586,67 @@ public abstract class ElasticSearchBaseDao<T> implements ApplicationContextAware
     }
 
     @Override
-    public int updateById(Serializable id, Update update) throws DaoException {
-        checkArgumentId(id);
-        checkArgumentUpdate(update);
+    public int[] updateBatch(List<T> entityList, List<String> propetyList) throws DaoException {
+        checkArgumentEntityList(entityList);
+
+        if (entityList.size() > MAX_UPDATE_SIZE) {
+            throw new DaoMethodParameterException("单次更新的记录多于" + MAX_UPDATE_SIZE + "拒绝批量更新");
+        }
+
+        List<Serializable> ids = Lists.newArrayListWithCapacity(entityList.size());
+        List<Update> updateList = Lists.newArrayListWithCapacity(entityList.size());
+        List<Long> versionList = Lists.newArrayListWithCapacity(entityList.size());
+        for (T entity : entityList) {
+            String id = ((StringIdEntity) entity).getId();
+            checkArgumentId(id);
+            Update update = DaoHelper.entity2Update(entity, propetyList);
+            checkArgumentUpdate(update);
+            ids.add(id);
+            updateList.add(update);
+            versionList.add(this.updateVersion(id, update));
+        }
+
+        try {
+            Client client = ElasticSearchClientFactory.INSTANCE.getClient(elasticSearchSettings);
+            BulkRequestBuilder bulkRequestBuilder = client.prepareBulk();
+            for (int i = INT_0; i < entityList.size(); i++) {
+                bulkRequestBuilder.add(this.prepareUpdate(client, ids.get(i), updateList.get(i), versionList.get(i)));
+            }
+            BulkResponse bulkResponse = bulkRequestBuilder.get();
+
+            /**
+             * bulk的返回和请求顺序一致;不带版本的更新版本冲突时和updateById一样refresh后单独重试
+             */
+            int[] counts = new int[entityList.size()];
+            StringBuilder failures = new StringBuilder();
+            BulkItemResponse[] items = bulkResponse.getItems();
+            for (int i = INT_0; i < items.length; i++) {
+                if (!items[i].isFailed()) {
+                    counts[i] = items[i].getResponse().getResult() == DocWriteResponse.Result.NOOP ? INT_0 : INT_1;
+                } else if (versionList.get(i) == Versions.MATCH_ANY && items[i].getFailure().getCause() instanceof VersionConflictEngineException) {
+                    counts[i] = this.updateById(ids.get(i), updateList.get(i));
+                } else {
+                    failures.append("[").append(i).append("]: ").append(items[i].getFailureMessage()).append(" ");
+                }
+            }
+
+            if (failures.length() > INT_0) {
+                throw new DaoException("updateBatch部分失败[" + failures.toString().trim() + "]");
+            }
+            return counts;
+        } catch (RuntimeException e) {
+            throw DaoExceptionTranslator.translate(e);
+        } finally {
+            if (entityCache != null) {
+                entityCache.invalidate(ids);
+            }
+        }
+    }
 
+    /**
+     * update中带的es版本,没有时不校验版本
+     */
+    private long updateVersion(Serializable id, Update update) {
         Long oldVersion;
         try {
             //带版本更新
@@ -462,16 +657,27 @@ public abstract class ElasticSearchBaseDao<T> implements ApplicationContextAware
         } catch (RuntimeException e) {
             throw new DaoException("The id[" + id + "] use version update, value must be long type[" + update.toString() + "]");
         }
+        return oldVersion;
+    }
+
+    private UpdateRequestBuilder prepareUpdate(Client client, Serializable id, Update update, long oldVersion) {
+        return client.prepareUpdate()
+                .setIndex(index)
+                .setType(type)
+                .setId(getIdSerializable(id))
+                .setVersion(oldVersion)
+                .setDoc(getSourceJsonStrWhenUpdate(update, notNeedTransientPropertyList), XContentType.JSON);
+    }
+
+    @Override
+    public int updateById(Serializable id, Update update) throws DaoException {
+        checkArgumentId(id);
+        checkArgumentUpdate(update);
 
+        long oldVersion = this.updateVersion(id, update);
         try {
             Client client = ElasticSearchClientFactory.INSTANCE.getClient(elasticSearchSettings);
-            UpdateRequestBuilder updateRequestBuilder = client.prepareUpdate()
-                    .setIndex(index)
-                    .setType(type)
-                    .setId(getIdSerializable(id))
-                    .setVersion(oldVersion)
-                    .setDoc(getSourceJsonStrWhenUpdate(update, hasEsVersionFiled, notNeedTransientPropertyList), XContentType.JSON);
-
+            UpdateRequestBuilder updateRequestBuilder = this.prepareUpdate(client, id, update, oldVersion);
 
             UpdateResponse updateResponse = updateRequestBuilder.get();
             int op = updateResponse.getResult().getOp();
@@ -488,6 +694,10 @@ public abstract class ElasticSearchBaseDao<T> implements ApplicationContextAware
             }
         } catch (RuntimeException e) {
             throw DaoExceptionTranslator.translate(e);
+        } finally {
+            if (entityCache != null) {
+                entityCache.invalidate(id);
+            }
         }
     }
 
@@ -594,6 +804,10 @@ public abstract class ElasticSearchBaseDao<T> implements ApplicationContextAware
             return INT_1;
         } catch (RuntimeException e) {
             throw DaoExceptionTranslator.translate(e);
+        } finally {
+            if (entityCache != null) {
+                entityCache.invalidate(id);
+            }
         }
     }
 
@@ -753,6 +967,19 @@ public abstract class ElasticSearchBaseDao<T> implements ApplicationContextAware
         }
     }
 
+    @Override
+    public AsyncBaseDao<T> async() {
+        if (asyncBaseDao == null) {
+            synchronized (this) {
+                if (asyncBaseDao == null) {
+                    ExecutorService executor = AsyncExecutors.getExecutor(elasticSearchSettings, elasticSearchSettings.getAsyncThreads(), elasticSearchSettings.getAsyncQueueSize(), null);
+                    asyncBaseDao = new AsyncBaseDao<T>(this, executor, () -> false);
+                }
+            }
+        }
+        return asyncBaseDao;
+    }
+
     @Override
     public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
         this.applicationContext = applicationContext;
@@ -797,6 +1024,7 @@ public abstract class ElasticSearchBaseDao<T> implements ApplicationContextAware
         }
 
         ElasticSearchClientFactory.INSTANCE.setClient(elasticSearchSettings);
+        this.entityCache = EntityCache.create(this.entityClass, daoDescription.cacheMaximumSize(), daoDescription.cacheExpireSeconds());
 
         //设置不需要持久化的字段
         Field[] fields = entityClass.getDeclaredFields();
@@ -810,5 +1038,9 @@ public abstract class ElasticSearchBaseDao<T> implements ApplicationContextAware
                 notNeedTransientPropertyList.add(propertyName);
             }
         }
+        //version由es维护,不写入文档;初始化后只读,多线程共享
+        if (hasEsVersionFiled) {
+            notNeedTransientPropertyList.add(ES_VERSION_FIELD_NAME);
+        }
     }
 }
@@ -264,15 +264,10 @@ public final class ElasticSearchHelper {
      * 插入文档生成持久化的json字符串
      *
      * @param entity                       -
-     * @param hasEsVersionFiled            -
-     * @param notNeedTransientPropertyList -
+     * @param notNeedTransientPropertyList - 不持久化的字段,含有es的version字段时应包含ES_VERSION_FIELD_NAME,只读
      * @return
      */
-    static String getSourceJsonStrWhenInsert(Object entity, boolean hasEsVersionFiled, List<String> notNeedTransientPropertyList) {
-        if (hasEsVersionFiled) {
-            notNeedTransientPropertyList.add(ES_VERSION_FIELD_NAME);
-        }
-
+    static String getSourceJsonStrWhenInsert(Object entity, List<String> notNeedTransientPropertyList) {
         String sourceJsonStr;
         if (notNeedTransientPropertyList.isEmpty()) {
             sourceJsonStr = FastJson.object2JsonStrUseNullValue(entity);
@@ -286,15 +281,10 @@ public final class ElasticSearchHelper {
      * 修改文档生成持久化的json字符串
      *
      * @param update                       -
-     * @param hasEsVersionFiled            -
-     * @param notNeedTransientPropertyList -
+     * @param notNeedTransientPropertyList - 不持久化的字段,含有es的version字段时应包含ES_VERSION_FIELD_NAME,只读
      * @return
      */
-    static String getSourceJsonStrWhenUpdate(Update update, boolean hasEsVersionFiled, List<String> notNeedTransientPropertyList) {
-        if (hasEsVersionFiled) {
-            notNeedTransientPropertyList.add(ES_VERSION_FIELD_NAME);
-        }
-
+    static String getSourceJsonStrWhenUpdate(Update update, List<String> notNeedTransientPropertyList) {
         String sourceJsonStr;
         if (notNeedTransientPropertyList.isEmpty()) {
             sourceJsonStr = FastJson.object2JsonStrUseNullValue(update.getSetMap());
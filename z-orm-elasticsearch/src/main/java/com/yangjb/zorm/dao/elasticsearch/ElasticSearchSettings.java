@@ -20,4 +20,12 @@ public final class ElasticSearchSettings implements DaoSettings {
      * 集群名称
      */
     private String clusterName = "elasticsearch";
+    /**
+     * 异步dao的线程数,0表示默认8
+     */
+    private int asyncThreads;
+    /**
+     * 异步dao线程池的等待队列大小,队列满时拒绝
+     */
+    private int asyncQueueSize = 1000;
 }
@@ -0,0 +1,98 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 单个数据源的自适应并发限制,正在执行的请求数达到上限时直接拒绝,不在连接池上排队
+ * 每个请求结束后按LimitAlgorithm调整上限,并发调整时跳过个别成功样本;失败样本总是等待调整,数据库过载时上限一定会减小
+ */
+public final class AdaptiveLimiter {
+    private final LimitAlgorithm algorithm;
+    private final int minLimit;
+    private final int maxLimit;
+    private final ReentrantLock lock = new ReentrantLock();
+    //只在持有lock时修改
+    private double limit;
+    private volatile int currentLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder shedCount = new LongAdder();
+
+    AdaptiveLimiter(LimitAlgorithm algorithm, int initialLimit, int minLimit, int maxLimit) {
+        this.algorithm = algorithm;
+        this.minLimit = Math.max(minLimit, 1);
+        this.maxLimit = Math.max(maxLimit, this.minLimit);
+        this.limit = Math.min(Math.max(initialLimit, this.minLimit), this.maxLimit);
+        this.currentLimit = (int) limit;
+    }
+
+    /**
+     * 获取执行许可,成功后必须调用release
+     *
+     * @return 达到上限时返回false
+     */
+    boolean tryAcquire() {
+        while (true) {
+            int n = inFlight.get();
+            if (n >= currentLimit) {
+                shedCount.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 请求结束,按执行时间调整上限
+     *
+     * @param rttNanos - 执行时间
+     * @param dropped  - 是否因连接失败或超时失败
+     */
+    void release(long rttNanos, boolean dropped) {
+        int n = inFlight.getAndDecrement();
+        if (dropped) {
+            lock.lock();
+        } else if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            limit = Math.min(Math.max(algorithm.update(limit, rttNanos, n, dropped), minLimit), maxLimit);
+            currentLimit = (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 非数据库原因中断,不调整上限
+     */
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * 当前并发上限
+     */
+    public int getLimit() {
+        return currentLimit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * 因达到上限被拒绝的请求数
+     */
+    public long getShedCount() {
+        return shedCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveLimiter[limit=" + getLimit() + ", inFlight=" + getInFlight() + ", shedCount=" + getShedCount() + "]";
+    }
+}
@@ -0,0 +1,90 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import com.yangjb.zorm.exception.BulkheadFullException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个数据源上一个分区的舱壁
+ * 并发数已满时进入有界的等待队列,队列已满或等待超时时抛出BulkheadFullException,不会阻塞在连接池上
+ */
+public final class Bulkhead {
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxWaiting;
+    private final long maxWaitMillis;
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    Bulkhead(String name, BulkheadSettings bulkheadSettings) {
+        this.name = name;
+        this.maxConcurrent = bulkheadSettings.getMaxConcurrent();
+        this.maxWaiting = bulkheadSettings.getMaxWaiting();
+        this.maxWaitMillis = bulkheadSettings.getMaxWaitMillis();
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * 获取执行许可,成功后必须调用release
+     *
+     * @throws BulkheadFullException 并发数和等待队列已满或等待超时
+     */
+    void acquire() {
+        if (permits.tryAcquire()) {
+            return;
+        }
+        if (maxWaiting <= 0 || waiting.incrementAndGet() > maxWaiting) {
+            if (maxWaiting > 0) {
+                waiting.decrementAndGet();
+            }
+            rejectedCount.increment();
+            throw new BulkheadFullException("舱壁" + name + "并发数已达到" + maxConcurrent);
+        }
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                rejectedCount.increment();
+                throw new BulkheadFullException("舱壁" + name + "等待超过" + maxWaitMillis + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BulkheadFullException("舱壁" + name + "等待被中断", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    void release() {
+        permits.release();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 正在执行的请求数
+     */
+    public int getInFlight() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    /**
+     * 正在等待的请求数
+     */
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "Bulkhead[name=" + name + ", inFlight=" + getInFlight() + ", waiting=" + getWaiting() + ", rejectedCount=" + getRejectedCount() + "]";
+    }
+}
@@ -0,0 +1,22 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import lombok.Data;
+
+/**
+ * 舱壁分区设置,每个数据源按分区单独计数
+ */
+@Data
+public class BulkheadSettings {
+    /**
+     * 分区在每个数据源上最多同时执行的请求数,应小于连接池大小
+     */
+    private int maxConcurrent = 10;
+    /**
+     * 并发数已满时最多等待的请求数,0表示不等待直接拒绝
+     */
+    private int maxWaiting;
+    /**
+     * 等待的最大毫秒数,超时后拒绝
+     */
+    private long maxWaitMillis = 1000;
+}
@@ -0,0 +1,132 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import com.yangjb.zorm.query.ConsistencyLevelEnum;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 线程级别的读一致性上下文
+ * 1.作用域:execute执行期间没有单独设置一致性级别的读操作使用作用域的级别
+ * 2.会话:记录当前线程最后一次写每个表的时间,用于READ_YOUR_WRITES
+ * 线程池复用线程时会话中的写时间在readYourWritesMillis后自然失效,也可以在请求结束时调用clearSession
+ */
+public class ConsistencyContext {
+    private ConsistencyContext() {
+    }
+
+    /**
+     * 当前作用域的一致性级别
+     */
+    private static final ThreadLocal<ConsistencyLevelEnum> scopeLevel = new ThreadLocal<ConsistencyLevelEnum>();
+
+    /**
+     * 当前作用域BOUNDED_STALENESS允许的最大复制延迟毫秒数
+     */
+    private static final ThreadLocal<Long> scopeMaxStalenessMillis = new ThreadLocal<Long>();
+
+    /**
+     * 表名到当前线程最后一次写该表的时间
+     */
+    private static final ThreadLocal<Map<String, Long>> lastWriteMillis = new ThreadLocal<Map<String, Long>>();
+
+    /**
+     * 在指定一致性级别的作用域内执行,可以嵌套,结束后恢复外层的级别
+     *
+     * @param consistencyLevel - 一致性级别
+     * @param supplier         - 执行的操作
+     * @return - 操作的返回值
+     */
+    public static <R> R execute(ConsistencyLevelEnum consistencyLevel, Supplier<R> supplier) {
+        return execute(consistencyLevel, 0, supplier);
+    }
+
+    /**
+     * 在指定一致性级别的作用域内执行,可以嵌套,结束后恢复外层的级别
+     *
+     * @param consistencyLevel   - 一致性级别
+     * @param maxStalenessMillis - BOUNDED_STALENESS允许的最大复制延迟毫秒数,0表示使用默认值
+     * @param supplier           - 执行的操作
+     * @return - 操作的返回值
+     */
+    public static <R> R execute(ConsistencyLevelEnum consistencyLevel, long maxStalenessMillis, Supplier<R> supplier) {
+        ConsistencyLevelEnum outerLevel = scopeLevel.get();
+        Long outerMaxStalenessMillis = scopeMaxStalenessMillis.get();
+        scopeLevel.set(consistencyLevel);
+        scopeMaxStalenessMillis.set(maxStalenessMillis);
+        try {
+            return supplier.get();
+        } finally {
+            if (outerLevel == null) {
+                scopeLevel.remove();
+                scopeMaxStalenessMillis.remove();
+            } else {
+                scopeLevel.set(outerLevel);
+                scopeMaxStalenessMillis.set(outerMaxStalenessMillis);
+            }
+        }
+    }
+
+    /**
+     * 当前作用域的一致性级别
+     *
+     * @return 不在作用域中返回null
+     */
+    public static ConsistencyLevelEnum getScopeLevel() {
+        return scopeLevel.get();
+    }
+
+    /**
+     * 当前作用域BOUNDED_STALENESS允许的最大复制延迟毫秒数
+     *
+     * @return 不在作用域中或未设置返回0
+     */
+    public static long getScopeMaxStalenessMillis() {
+        Long maxStalenessMillis = scopeMaxStalenessMillis.get();
+        return maxStalenessMillis == null ? 0 : maxStalenessMillis;
+    }
+
+    /**
+     * 记录当前线程写了tableName
+     *
+     * @param tableName
+     */
+    static void recordWrite(String tableName) {
+        Map<String, Long> writes = lastWriteMillis.get();
+        if (writes == null) {
+            writes = new HashMap<String, Long>();
+            lastWriteMillis.set(writes);
+        }
+        writes.put(tableName, System.currentTimeMillis());
+    }
+
+    /**
+     * 当前线程最后一次写tableName的时间
+     *
+     * @param tableName - 表名,为null时返回写任意表的最后时间
+     * @return 没有写过返回0
+     */
+    static long getLastWriteMillis(String tableName) {
+        Map<String, Long> writes = lastWriteMillis.get();
+        if (writes == null) {
+            return 0;
+        }
+        if (tableName != null) {
+            Long millis = writes.get(tableName);
+            return millis == null ? 0 : millis;
+        }
+        long last = 0;
+        for (Long millis : writes.values()) {
+            last = Math.max(last, millis);
+        }
+        return last;
+    }
+
+    /**
+     * 清空当前线程的会话,用于请求结束时
+     */
+    public static void clearSession() {
+        lastWriteMillis.remove();
+    }
+}
@@ -0,0 +1,160 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import com.yangjb.zorm.exception.DaoException;
+import com.yangjb.zorm.exception.DaoExceptionTranslator;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 基于forward-only ResultSet的游标查询
+ * 逐行读取并映射entity,内存占用和结果集大小无关
+ * 读取完毕或调用close后释放ResultSet、Statement和连接,未读取完毕时必须调用close
+ * 打开期间和普通查询一样计入数据源的舱壁、并发限制和正在执行的请求数
+ * mysql逐行流式读取(fetchSize为Integer.MIN_VALUE)期间连接上不能执行其他语句,事物中使用时抛出DaoException
+ * 未读取完毕就关闭时先取消查询,避免关闭时读完剩余的行
+ *
+ * @non-threadsafe 线程不安全对象，只能在打开它的线程中使用
+ */
+public final class EntityCursor<T> implements Iterator<T>, Closeable {
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityRowMapper<T> rowMapper;
+    private final String sql;
+    //不是路由器的JdbcTemplate时为null
+    private TrackedJdbcTemplate.Lease lease;
+    //关闭后执行,用于释放租户的占用,可以为null
+    private final Runnable onClose;
+    private Connection connection;
+    private PreparedStatement ps;
+    private ResultSet rs;
+    private EntityRowMapper.PropertyWriter[] writers;
+    //当前行是否已经next但还没有被读取
+    private boolean fetched;
+    //结果集是否已读取完毕
+    private boolean exhausted;
+    private boolean closed;
+
+    EntityCursor(JdbcTemplate jdbcTemplate, EntityRowMapper<T> rowMapper, String sql, Object[] args, int fetchSize, Runnable onClose) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.rowMapper = rowMapper;
+        this.sql = sql;
+        this.onClose = onClose;
+        //参数错误,不计入数据源的失败
+        if (fetchSize == Integer.MIN_VALUE && TransactionSynchronizationManager.hasResource(jdbcTemplate.getDataSource())) {
+            throw new DaoException("事物中不能使用mysql流式游标,读取期间事物中的其他语句会失败;请在事物外使用游标或设置streamFetchSize");
+        }
+        try {
+            if (jdbcTemplate instanceof TrackedJdbcTemplate) {
+                this.lease = ((TrackedJdbcTemplate) jdbcTemplate).lease();
+            }
+            this.connection = DataSourceUtils.getConnection(jdbcTemplate.getDataSource());
+            this.ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            this.ps.setFetchSize(fetchSize);
+            new ArgumentPreparedStatementSetter(args).setValues(ps);
+            this.rs = ps.executeQuery();
+            if (lease != null) {
+                lease.opened();
+            }
+            this.writers = rowMapper.resolve(rs);
+        } catch (SQLException e) {
+            throw this.fail(jdbcTemplate.getExceptionTranslator().translate("EntityCursor", sql, e));
+        } catch (RuntimeException e) {
+            throw this.fail(e);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (fetched) {
+            return true;
+        }
+        try {
+            fetched = rs.next();
+        } catch (SQLException e) {
+            throw this.fail(jdbcTemplate.getExceptionTranslator().translate("EntityCursor", sql, e));
+        }
+        //读取完毕自动释放资源
+        if (!fetched) {
+            exhausted = true;
+            close();
+        }
+        return fetched;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        fetched = false;
+        try {
+            return rowMapper.mapRow(rs, writers);
+        } catch (SQLException e) {
+            throw this.fail(jdbcTemplate.getExceptionTranslator().translate("EntityCursor", sql, e));
+        }
+    }
+
+    /**
+     * 转换为顺序Stream,Stream关闭时关闭游标
+     */
+    public Stream<T> stream() {
+        Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        fetched = false;
+        if (rs != null && !exhausted) {
+            try {
+                ps.cancel();
+            } catch (SQLException e) {
+                //取消失败时关闭会读完剩余的行,不影响结果
+            }
+        }
+        JdbcUtils.closeResultSet(rs);
+        JdbcUtils.closeStatement(ps);
+        DataSourceUtils.releaseConnection(connection, jdbcTemplate.getDataSource());
+        if (lease != null) {
+            lease.release();
+        }
+        if (onClose != null) {
+            onClose.run();
+        }
+    }
+
+    /**
+     * 按失败释放许可并关闭游标
+     *
+     * @param e - spring转换后的异常
+     * @return - 转换后抛出的异常
+     */
+    private RuntimeException fail(RuntimeException e) {
+        if (lease != null) {
+            lease.fail(e);
+        }
+        close();
+        return DaoExceptionTranslator.translate(e);
+    }
+}
@@ -6,18 +6,17 @@ import com.google.common.collect.Sets;
 import com.yangjb.zorm.annotation.Column;
 import com.yangjb.zorm.constant.DBConstant;
 import com.yangjb.zorm.dao.DaoHelper;
+import com.yangjb.zorm.dao.EntityAccessor;
+import com.yangjb.zorm.dao.PropertyAccessor;
 import com.yangjb.zorm.entity.LongIdEntity;
 import com.yangjb.zorm.exception.DaoException;
 import lombok.Getter;
 
 import java.lang.reflect.Field;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import static com.yangjb.zorm.constant.MixedConstant.INT_0;
-
 /**
  * 实体和数据库的映射
  *
@@ -33,28 +32,61 @@ public final class EntityMapper<T> {
     private Map<String, String> columnToPropertyMapper = Maps.newLinkedHashMap();
     //不需要持久化的字段
     private Set<String> notNeedTransientPropertySet = Sets.newHashSet();
+    //属性名到属性读写器映射
+    private Map<String, PropertyAccessor> propertyToAccessorMapper = Maps.newLinkedHashMap();
+    //entity属性读写器
+    private EntityAccessor entityAccessor;
+    //行记录到entity的映射
+    private EntityRowMapper<T> rowMapper;
+    //表名
+    private String tableName;
+    //oracle sequence名字
+    private String sequenceName;
+    //以下sql模板创建时拼装一次,之后只拼接和条件相关的部分
+    //查询全部字段:SELECT c1,c2...
+    private String selectAllSql;
+    //FROM table
+    private String fromSql;
+    //UPDATE table
+    private String updateSql;
+    //按id删除
+    private String deleteByIdSql;
+    //插入全部持久化字段,不包含id
+    private String insertSql;
+    //插入全部持久化字段,包含id
+    private String insertWithIdSql;
 
     public EntityMapper(Class<T> entityClass) {
+        this(entityClass, JdbcHelper.getTableName(entityClass));
+    }
+
+    /**
+     * 指定物理表名,用于分表
+     *
+     * @param entityClass - entityClass
+     * @param tableName   - 物理表名
+     */
+    public EntityMapper(Class<T> entityClass, String tableName) {
         this.entityName = entityClass.getCanonicalName();
 
         try {
+            this.entityAccessor = EntityAccessor.forClass(entityClass);
+
             //该entity所有属性
-            List<Field> fieldList = Lists.newArrayList();
+            List<PropertyAccessor> accessorList = Lists.newArrayList();
 
             //id字段
-            fieldList.add(LongIdEntity.class.getDeclaredField(DBConstant.PK_NAME));
+            accessorList.add(EntityAccessor.forClass(LongIdEntity.class).getDeclaredPropertyAccessor(DBConstant.PK_NAME));
 
             //本类字段
-            Field[] fields = entityClass.getDeclaredFields();
-            if (fields == null || fields.length == INT_0) {
+            List<PropertyAccessor> declaredAccessors = entityAccessor.getDeclaredPropertyAccessors();
+            if (declaredAccessors.isEmpty()) {
                 throw new DaoException(getEntityName() + " have no property");
             }
-            fieldList.addAll(Arrays.asList(fields));
+            accessorList.addAll(declaredAccessors);
 
-            for (Field field : fieldList) {
-                if (DaoHelper.isFinalOrStatic(field)) {
-                    continue;
-                }
+            for (PropertyAccessor accessor : accessorList) {
+                Field field = accessor.getField();
                 String propertyName = field.getName();
                 //istransient=true的加入到忽略持久化列表
                 Column columnAnnotation = field.getAnnotation(Column.class);
@@ -64,8 +96,19 @@ public final class EntityMapper<T> {
                 String columnName = DaoHelper.getColumnName(field);
                 propertyToColumnMapper.put(propertyName, columnName);
                 columnToPropertyMapper.put(columnName, propertyName);
-
+                propertyToAccessorMapper.put(propertyName, accessor);
             }
+
+            this.rowMapper = new EntityRowMapper<T>(entityClass, columnToPropertyMapper, propertyToAccessorMapper);
+
+            this.tableName = tableName;
+            this.sequenceName = JdbcHelper.getSequenceName(entityClass);
+            this.selectAllSql = JdbcHelper.buildSelectAll(this);
+            this.fromSql = "FROM " + tableName + " ";
+            this.updateSql = "UPDATE " + tableName + " ";
+            this.deleteByIdSql = "DELETE " + fromSql + " WHERE id = ?";
+            this.insertSql = JdbcHelper.buildInsert(false, this);
+            this.insertWithIdSql = JdbcHelper.buildInsert(true, this);
         } catch (Exception e) {
             throw new DaoException("无法创建Entity[" + getEntityName() + "]对应的EntityMapper", e);
         }
@@ -0,0 +1,175 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.yangjb.zorm.dao.PropertyAccessor;
+import com.yangjb.zorm.exception.DaoException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.lang.reflect.Constructor;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.yangjb.zorm.constant.MixedConstant.INT_1;
+
+/**
+ * 行记录到entity的直接映射
+ * 每个entity只创建一次,每次执行sql时根据ResultSetMetaData解析一次列下标,
+ * 之后每行按属性类型使用对应的getXxx直接写入entity,不再经过中间Map
+ */
+public final class EntityRowMapper<T> implements ResultSetExtractor<List<T>> {
+    private final Class<T> entityClass;
+    private final Constructor<T> constructor;
+    //小写字段名到属性写入器映射
+    private final Map<String, PropertyWriter> columnToWriterMapper = Maps.newHashMap();
+
+    EntityRowMapper(Class<T> entityClass, Map<String, String> columnToPropertyMapper, Map<String, PropertyAccessor> propertyToAccessorMapper) {
+        this.entityClass = entityClass;
+        try {
+            this.constructor = entityClass.getDeclaredConstructor();
+            this.constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new DaoException("Entity[" + entityClass.getName() + "]必须有无参构造方法", e);
+        }
+
+        for (Map.Entry<String, String> entry : columnToPropertyMapper.entrySet()) {
+            PropertyAccessor accessor = propertyToAccessorMapper.get(entry.getValue());
+            columnToWriterMapper.put(entry.getKey(), new PropertyWriter(accessor, ColumnReader.of(accessor.getType())));
+        }
+    }
+
+    /**
+     * 根据结果集元数据解析每一列对应的属性写入器,下标从1开始,entity没有对应属性的列为null
+     *
+     * @param rs - 结果集
+     * @return - 列下标到属性写入器
+     */
+    PropertyWriter[] resolve(ResultSet rs) throws SQLException {
+        ResultSetMetaData rsmd = rs.getMetaData();
+        int columnCount = rsmd.getColumnCount();
+        PropertyWriter[] writers = new PropertyWriter[columnCount + INT_1];
+        for (int i = INT_1; i <= columnCount; i++) {
+            //如果select出来的字段有而entity没有对应的属性，需要忽略该字段
+            String column = JdbcUtils.lookupColumnName(rsmd, i).toLowerCase(Locale.US);
+            writers[i] = columnToWriterMapper.get(column);
+        }
+        return writers;
+    }
+
+    /**
+     * 将当前行写入一个新的entity
+     *
+     * @param rs      - 结果集,已定位到当前行
+     * @param writers - resolve得到的列下标到属性写入器
+     * @return - entity
+     */
+    T mapRow(ResultSet rs, PropertyWriter[] writers) throws SQLException {
+        T entity;
+        try {
+            entity = constructor.newInstance();
+        } catch (Exception e) {
+            throw new DaoException("无法实例化Entity对象[" + entityClass.getSimpleName() + "]", e);
+        }
+
+        for (int i = INT_1; i < writers.length; i++) {
+            PropertyWriter writer = writers[i];
+            if (writer != null) {
+                writer.write(entity, rs, i);
+            }
+        }
+        return entity;
+    }
+
+    @Override
+    public List<T> extractData(ResultSet rs) throws SQLException, DataAccessException {
+        List<T> entityList = Lists.newArrayList();
+        PropertyWriter[] writers = null;
+        while (rs.next()) {
+            if (writers == null) {
+                writers = resolve(rs);
+            }
+            entityList.add(mapRow(rs, writers));
+        }
+        return entityList;
+    }
+
+    /**
+     * 一列到一个属性的写入
+     */
+    static final class PropertyWriter {
+        private final PropertyAccessor accessor;
+        private final ColumnReader reader;
+
+        PropertyWriter(PropertyAccessor accessor, ColumnReader reader) {
+            this.accessor = accessor;
+            this.reader = reader;
+        }
+
+        void write(Object entity, ResultSet rs, int index) throws SQLException {
+            Object value = reader.read(rs, index);
+            //null值保持属性默认值,primitive类型不能写入null
+            if (value == null) {
+                return;
+            }
+            accessor.set(entity, value);
+        }
+    }
+
+    /**
+     * 按属性类型读取某一列的值
+     */
+    interface ColumnReader {
+        Object read(ResultSet rs, int index) throws SQLException;
+
+        static ColumnReader of(Class<?> type) {
+            if (Long.class == type || long.class == type) {
+                return (rs, index) -> {
+                    long value = rs.getLong(index);
+                    return rs.wasNull() ? null : value;
+                };
+            }
+            if (Integer.class == type || int.class == type) {
+                return (rs, index) -> {
+                    int value = rs.getInt(index);
+                    return rs.wasNull() ? null : value;
+                };
+            }
+            if (String.class == type) {
+                return ResultSet::getString;
+            }
+            if (java.util.Date.class == type || java.sql.Timestamp.class == type) {
+                return ResultSet::getTimestamp;
+            }
+            if (BigDecimal.class == type) {
+                return ResultSet::getBigDecimal;
+            }
+            if (Boolean.class == type || boolean.class == type) {
+                return (rs, index) -> {
+                    boolean value = rs.getBoolean(index);
+                    return rs.wasNull() ? null : value;
+                };
+            }
+            if (Double.class == type || double.class == type) {
+                return (rs, index) -> {
+                    double value = rs.getDouble(index);
+                    return rs.wasNull() ? null : value;
+                };
+            }
+            if (Short.class == type || short.class == type) {
+                return (rs, index) -> {
+                    short value = rs.getShort(index);
+                    return rs.wasNull() ? null : value;
+                };
+            }
+            //其他类型交给spring按类型读取
+            return (rs, index) -> JdbcUtils.getResultSetValue(rs, index, type);
+        }
+    }
+}
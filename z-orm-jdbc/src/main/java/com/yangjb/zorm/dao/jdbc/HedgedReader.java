@@ -0,0 +1,259 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import com.yangjb.zorm.exception.DaoException;
+import com.yangjb.zorm.exception.DaoExceptionTranslator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 对冲读,每个router一个
+ * 第一个读库超过延迟百分位仍未返回时,在另一个读库上执行同一个查询,使用先返回的结果并取消另一个statement
+ * 对冲次数受预算限制:每次读增加hedgeBudgetPercent/100次对冲的额度,最多累积MAX_BURST次,不会增加超过该比例的负载
+ * 样本不足SAMPLE_WARMUP个时不对冲
+ */
+@Slf4j
+public final class HedgedReader {
+    //延迟样本环形缓冲区大小
+    private static final int SAMPLE_SIZE = 1024;
+    private static final int SAMPLE_WARMUP = 100;
+    //每多少个样本重新计算一次百分位
+    private static final int RECOMPUTE_SAMPLES = 100;
+    //一次对冲消耗的额度,额度单位为1/100次
+    private static final long HEDGE_COST = 100;
+    private static final long MAX_BURST = 10;
+
+    private final ExecutorService executor;
+    private final double delayPercentile;
+    private final long minDelayNanos;
+    private final long budgetPercent;
+    private final AtomicLong budget = new AtomicLong();
+
+    private final long[] samples = new long[SAMPLE_SIZE];
+    private final AtomicLong sampleCount = new AtomicLong();
+    private final ReentrantLock recomputeLock = new ReentrantLock();
+    //-1表示样本不足
+    private volatile long delayNanos = -1;
+
+    private final LongAdder readCount = new LongAdder();
+    private final LongAdder hedgeCount = new LongAdder();
+    private final LongAdder hedgeWinCount = new LongAdder();
+    private final LongAdder budgetExhaustedCount = new LongAdder();
+
+    HedgedReader(JdbcSettings jdbcSettings) {
+        this.executor = jdbcSettings.getHedgeExecutor();
+        this.delayPercentile = jdbcSettings.getHedgeDelayPercentile();
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(jdbcSettings.getHedgeMinDelayMillis());
+        this.budgetPercent = jdbcSettings.getHedgeBudgetPercent();
+    }
+
+    /**
+     * 在first上查询,超过延迟百分位未返回且有预算时再在second上查询
+     *
+     * @param first    - 第一个读库
+     * @param second   - 对冲的读库
+     * @param bulkhead - 舱壁分区名
+     * @return - 先返回的结果
+     */
+    <R> R query(ReplicaNode first, ReplicaNode second, String bulkhead, String sql, Object[] args, ResultSetExtractor<R> rse) {
+        readCount.increment();
+        budget.accumulateAndGet(budgetPercent, (tokens, percent) -> Math.min(tokens + percent, HEDGE_COST * MAX_BURST));
+
+        CompletableFuture<R> result = new CompletableFuture<R>();
+        AtomicInteger pending = new AtomicInteger(1);
+        Attempt<R> firstAttempt = new Attempt<R>(first, false);
+        Attempt<R> secondAttempt = null;
+        try {
+            firstAttempt.submit(bulkhead, sql, args, rse, result, pending);
+        } catch (RejectedExecutionException e) {//线程池已满时在当前线程查询,不对冲
+            return first.getJdbcTemplate(bulkhead).query(sql, args, rse);
+        }
+
+        try {
+            long delay = delayNanos;
+            if (delay >= 0) {
+                try {
+                    return result.get(Math.max(delay, minDelayNanos), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    if (this.tryAcquireBudget()) {
+                        hedgeCount.increment();
+                        pending.incrementAndGet();
+                        secondAttempt = new Attempt<R>(second, true);
+                        try {
+                            secondAttempt.submit(bulkhead, sql, args, rse, result, pending);
+                        } catch (RejectedExecutionException re) {
+                            pending.decrementAndGet();
+                            secondAttempt = null;
+                        }
+                    } else {
+                        budgetExhaustedCount.increment();
+                    }
+                }
+            }
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DaoException("hedged read interrupted", e);
+        } catch (ExecutionException e) {
+            throw DaoExceptionTranslator.translate(e.getCause());
+        } finally {
+            firstAttempt.cancel();
+            if (secondAttempt != null) {
+                secondAttempt.cancel();
+            }
+        }
+    }
+
+    private boolean tryAcquireBudget() {
+        while (true) {
+            long tokens = budget.get();
+            if (tokens < HEDGE_COST) {
+                return false;
+            }
+            if (budget.compareAndSet(tokens, tokens - HEDGE_COST)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 记录一次读的延迟,每RECOMPUTE_SAMPLES个样本重新计算百分位
+     */
+    private void record(long nanos) {
+        long count = sampleCount.getAndIncrement();
+        samples[(int) (count % SAMPLE_SIZE)] = nanos;
+        if (count + 1 >= SAMPLE_WARMUP && (count + 1) % RECOMPUTE_SAMPLES == 0 && recomputeLock.tryLock()) {
+            try {
+                int n = (int) Math.min(count + 1, SAMPLE_SIZE);
+                long[] sorted = Arrays.copyOf(samples, n);
+                Arrays.sort(sorted);
+                delayNanos = sorted[(int) Math.max(Math.min(n - 1, Math.ceil(n * delayPercentile / 100) - 1), 0)];
+            } finally {
+                recomputeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 当前对冲延迟毫秒数
+     *
+     * @return 样本不足时返回-1
+     */
+    public double getDelayMillis() {
+        long delay = delayNanos;
+        return delay < 0 ? -1 : (double) Math.max(delay, minDelayNanos) / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public long getReadCount() {
+        return readCount.sum();
+    }
+
+    /**
+     * 发出对冲请求的次数
+     */
+    public long getHedgeCount() {
+        return hedgeCount.sum();
+    }
+
+    /**
+     * 对冲请求先返回的次数
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.sum();
+    }
+
+    /**
+     * 需要对冲但预算不足的次数
+     */
+    public long getBudgetExhaustedCount() {
+        return budgetExhaustedCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "HedgedReader[delayMillis=" + getDelayMillis() + ", readCount=" + getReadCount() + ", hedgeCount=" + getHedgeCount()
+                + ", hedgeWinCount=" + getHedgeWinCount() + ", budgetExhaustedCount=" + getBudgetExhaustedCount() + "]";
+    }
+
+    /**
+     * 在一个读库上的一次查询,可以取消正在执行的statement
+     */
+    private final class Attempt<R> {
+        private final ReplicaNode node;
+        private final boolean hedge;
+        private final AtomicReference<PreparedStatement> statement = new AtomicReference<PreparedStatement>();
+        private volatile boolean cancelled;
+        private volatile Future<?> future;
+
+        private Attempt(ReplicaNode node, boolean hedge) {
+            this.node = node;
+            this.hedge = hedge;
+        }
+
+        private void submit(String bulkhead, String sql, Object[] args, ResultSetExtractor<R> rse, CompletableFuture<R> result, AtomicInteger pending) {
+            future = executor.submit(() -> {
+                long start = System.nanoTime();
+                try {
+                    R value = node.getJdbcTemplate(bulkhead).query(con -> {
+                        PreparedStatement ps = con.prepareStatement(sql);
+                        statement.set(ps);
+                        if (cancelled) {
+                            ps.close();
+                            throw new SQLException("hedged read cancelled");
+                        }
+                        new ArgumentPreparedStatementSetter(args).setValues(ps);
+                        return ps;
+                    }, rse);
+                    statement.set(null);
+                    if (result.complete(value)) {
+                        record(System.nanoTime() - start);
+                        if (hedge) {
+                            hedgeWinCount.increment();
+                        }
+                    }
+                } catch (Throwable e) {
+                    statement.set(null);
+                    if (pending.decrementAndGet() == 0) {
+                        result.completeExceptionally(e);
+                    }
+                }
+            });
+        }
+
+        /**
+         * 先中断线程再取消statement,被取消的查询不计入读库的失败
+         */
+        private void cancel() {
+            cancelled = true;
+            Future<?> f = future;
+            if (f == null || f.isDone()) {
+                return;
+            }
+            f.cancel(true);
+            PreparedStatement ps = statement.get();
+            if (ps != null) {
+                try {
+                    ps.cancel();
+                } catch (SQLException | RuntimeException e) {
+                    log.debug("cancel hedged read failed", e);
+                }
+            }
+        }
+    }
+}
@@ -1,41 +1,62 @@
 package com.yangjb.zorm.dao.jdbc;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.yangjb.zorm.annotation.DaoDescription;
 import com.yangjb.zorm.annotation.Table;
 import com.yangjb.zorm.constant.DBConstant;
+import com.yangjb.zorm.dao.AsyncBaseDao;
+import com.yangjb.zorm.dao.AsyncExecutors;
 import com.yangjb.zorm.dao.DaoHelper;
-import com.yangjb.zorm.dao.DatabaseRouter;
+import com.yangjb.zorm.dao.EntityCache;
 import com.yangjb.zorm.dao.IBaseDao;
+import com.yangjb.zorm.dao.PropertyAccessor;
 import com.yangjb.zorm.dao.jdbc.enums.DialectEnum;
+import com.yangjb.zorm.dao.jdbc.transaction.TransactionContext;
 import com.yangjb.zorm.entity.LongIdEntity;
 import com.yangjb.zorm.exception.DaoException;
 import com.yangjb.zorm.exception.DaoExceptionTranslator;
+import com.yangjb.zorm.exception.DaoMethodParameterException;
 import com.yangjb.zorm.exception.UniqueConstraintException;
 import com.yangjb.zorm.query.*;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.MapUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.SqlTypeValue;
 import org.springframework.jdbc.core.StatementCreatorUtils;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.JdbcUtils;
 import org.springframework.jdbc.support.KeyHolder;
 
 import javax.annotation.PostConstruct;
 import java.io.Serializable;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import static com.yangjb.zorm.constant.MixedConstant.*;
 import static com.yangjb.zorm.dao.DaoHelper.*;
@@ -49,23 +70,84 @@ import static com.yangjb.zorm.dao.jdbc.JdbcHelper.*;
  */
 @Slf4j
 public abstract class JdbcBaseDao<T> implements ApplicationContextAware, IBaseDao<T> {
+    private static final int DEFAULT_FETCH_SIZE = 1000;
 
     private Class<T> entityClass;
     private EntityMapper<T> entityMapper;
     private JdbcSettings jdbcSettings;
-    private DatabaseRouter router;
+    private JdbcDatabaseRouter router;
+    //未分片时所有操作使用的分片
+    private ShardTarget<T> defaultTarget;
+    //设置了分片键时不为null
+    private ShardingRouter<T> shardingRouter;
+    private ScatterGatherExecutor scatterGatherExecutor;
+    //dao默认的舱壁分区,未设置时为null
+    private String bulkhead;
+    //findOneById、findListByIds是否对冲读
+    private boolean hedgedReads;
+    //dao默认的负载类型,未设置时为null
+    private String workload;
+    //未设置tenantProvider时为null
+    private TenantRouter tenantRouter;
     private ApplicationContext applicationContext;
+    private final StatementStatistics statementStatistics = new StatementStatistics();
+    private SqlShapeCache sqlShapeCache;
+    private EntityCache<T> entityCache;
+    private QueryResultCache queryResultCache;
+    //表的修改版本号,写操作时增加
+    private QueryResultCache.TableVersion tableVersion;
+    private volatile AsyncBaseDao<T> asyncBaseDao;
 
     @Override
     public Class<T> getGenericClass() {
         return this.entityClass;
     }
 
+    /**
+     * 该dao生成sql的统计
+     */
+    public StatementStatistics getStatementStatistics() {
+        return statementStatistics;
+    }
+
+    /**
+     * 该dao的sql形状缓存,未开启时为null
+     */
+    public SqlShapeCache getSqlShapeCache() {
+        return sqlShapeCache;
+    }
+
+    /**
+     * 该dao的二级缓存,未开启时为null
+     */
+    public EntityCache<T> getEntityCache() {
+        return entityCache;
+    }
+
+    /**
+     * 该dao的查询结果缓存,未开启时为null
+     */
+    public QueryResultCache getQueryResultCache() {
+        return queryResultCache;
+    }
+
     @Override
     public boolean exists(Serializable id) throws DaoException {
         checkArgumentId(id);
 
-        return this.exists(Criteria.where(DBConstant.PK_NAME, id));
+        Map<String, T> identityMap = TransactionContext.getIdentityMap(entityClass);
+        if (identityMap != null && identityMap.containsKey(String.valueOf(id))) {
+            return true;
+        }
+        TenantRouter.Lease lease = this.enterTenant();
+        try {
+            if (this.isEntityCacheReadable()) {
+                return null != this.findOneById(id);
+            }
+            return this.exists(Criteria.where(DBConstant.PK_NAME, id));
+        } finally {
+            this.exitTenant(lease);
+        }
     }
 
     @Override
@@ -93,20 +175,24 @@ public abstract class JdbcBaseDao<T> implements ApplicationContextAware, IBaseDa
         checkArgumentCriteria(criteria);
 
         List<Object> valueList = Lists.newArrayList();
-        StringBuilder sql = new StringBuilder();
 
+        TenantRouter.Lease lease = this.enterTenant();
         try {
-            sql.append(SELECT_COUNT());
-            sql.append(FROM(entityClass));
-            sql.append(WHERE(criteria, valueList, entityMapper));
-
-            if (log.isDebugEnabled()) {
-                log.debug(formatSql(sql.toString(), valueList));
+            List<ShardTarget<T>> targets = this.shardTargets(criteria);
+            if (targets.size() != INT_1) {
+                return this.scatterCount(targets, criteria);
             }
-
-            return ((JdbcTemplate) router.readRoute()).queryForObject(sql.toString(), valueList.toArray(), Long.class);
+            ShardTarget<T> target = targets.get(INT_0);
+            String sql = this.countSql(target, criteria, valueList);
+            if (this.isQueryResultCacheReadable(null)) {
+                return queryResultCache.get(sql, valueList, () -> this.readRoute(target, null).queryForObject(sql, valueList.toArray(), Long.class),
+                        count -> INT_1, count -> count);
+            }
+            return this.readRoute(target, null).queryForObject(sql, valueList.toArray(), Long.class);
         } catch (RuntimeException e) {
             throw DaoExceptionTranslator.translate(e);
+        } finally {
+            this.exitTenant(lease);
         }
     }
 
@@ -114,16 +200,28 @@ public abstract class JdbcBaseDao<T> implements ApplicationContextAware, IBaseDa
     public long countAll() throws DaoException {
         StringBuilder sql = new StringBuilder();
 
+        TenantRouter.Lease lease = this.enterTenant();
         try {
+            List<ShardTarget<T>> targets = this.shardTargets(null);
+            if (targets.size() != INT_1) {
+                return this.scatterCount(targets, null);
+            }
+            ShardTarget<T> target = targets.get(INT_0);
             sql.append(SELECT_COUNT());
-            sql.append(FROM(entityClass));
+            sql.append(FROM(target.getEntityMapper()));
 
             if (log.isDebugEnabled()) {
                 log.debug(formatSql(sql.toString()));
             }
-            return ((JdbcTemplate) router.readRoute()).queryForObject(sql.toString(), Long.class);
+            if (this.isQueryResultCacheReadable(null)) {
+                return queryResultCache.get(sql.toString(), Collections.emptyList(), () -> this.readRoute(target, null).queryForObject(sql.toString(), Long.class),
+                        count -> INT_1, count -> count);
+            }
+            return this.readRoute(target, null).queryForObject(sql.toString(), Long.class);
         } catch (RuntimeException e) {
             throw DaoExceptionTranslator.translate(e);
+        } finally {
+            this.exitTenant(lease);
         }
     }
 
@@ -132,19 +230,23 @@ public abstract class JdbcBaseDao<T> implements ApplicationContextAware, IBaseDa
         checkArgument(sql);
 
         List<Object> valueList = MapUtils.isEmpty(param) ? null : Lists.newArrayList(param.values());
+        TenantRouter.Lease lease = this.enterTenant();
         try {
             if (log.isDebugEnabled()) {
                 log.debug(formatSql(sql, valueList));
             }
 
+            ShardTarget<T> target = this.shardTarget((Criteria) null);
             if (CollectionUtils.isEmpty(valueList)) {
-                return ((JdbcTemplate) router.readRoute()).queryForObject(sql, Long.class);
+                return this.readRoute(target, null).queryForObject(sql, Long.class);
             } else {
-                return ((JdbcTemplate) router.readRoute()).queryForObject(sql, valueList.toArray(), Long.class);
+                return this.readRoute(target, null).queryForObject(sql, valueList.toArray(), Long.class);
             }
 
         } catch (RuntimeException e) {
             throw DaoExceptionTranslator.translate(e);
+        } finally {
+            this.exitTenant(lease);
         }
     }
 
@@ -152,7 +254,42 @@ public abstract class JdbcBaseDao<T> implements ApplicationContextAware, IBaseDa
     public T findOneById(Serializable id) throws DaoException {
         checkArgumentId(id);
 
-        return this.findOne(Criteria.where(DBConstant.PK_NAME, id));
+        //事物中同一个id返回同一个对象
+        Map<String, T> identityMap = TransactionContext.getIdentityMap(entityClass);
+        if (identityMap != null) {
+            T entity = identityMap.get(String.valueOf(id));
+            if (entity == null) {
+                entity = this.loadOneById(id);
+                if (entity != null) {
+                    identityMap.put(String.valueOf(id), entity);
+                }
+            }
+            return entity;
+        }
+        TenantRouter.Lease lease = this.enterTenant();
+        try {
+            if (this.isEntityCacheReadable()) {
+                return entityCache.get(id, this::loadOneById);
+            }
+            return this.loadOneById(id);
+        } finally {
+            this.exitTenant(lease);
+        }
+    }
+
+    /**
+     * 按id从数据库查询
+     */
+    private T loadOneById(Serializable id) {
+        return this.findOneByQuery(this.idQuery(Criteria.where(DBConstant.PK_NAME, id)));
+    }
+
+    /**
+     * 按id查询的query,dao开启了对冲读时对冲
+     */
+    private Query idQuery(Criteria criteria) {
+        Query query = Query.query(criteria);
+        return hedgedReads ? query.withHedgedRead() : query;
     }
 
     @Override
@@ -176,7 +313,107 @@ public abstract class JdbcBaseDao<T> implements ApplicationContextAware, IBaseDa
     public List<T> findListByIds(List<Serializable> ids) throws DaoException {
         checkArgumentIds(ids);
 
-        return this.findList(Criteria.where(DBConstant.PK_NAME, CriteriaOperators.IN, ids));
+        Map<String, T> identityMap = TransactionContext.getIdentityMap(entityClass);
+        if (identityMap != null) {
+            return this.findListByIdsInTransaction(distinctIds(ids), identityMap);
+        }
+        TenantRouter.Lease lease = this.enterTenant();
+        try {
+            if (this.isEntityCacheReadable()) {
+                List<T> entityList = entityCache.getAll(distinctIds(ids), this::loadListByIds, entity -> ((LongIdEntity) entity).getId());
+                return entityList.isEmpty() ? null : entityList;
+            }
+            return this.loadListByIds(distinctIds(ids));
+        } finally {
+            this.exitTenant(lease);
+        }
+    }
+
+    /**
+     * 事物中按id批量查询,已加载的id返回同一个对象,其余从数据库查询后放入一级缓存
+     *
+     * @param ids         - 不重复的id
+     * @param identityMap - 当前事物的一级缓存
+     */
+    private List<T> findListByIdsInTransaction(List<Serializable> ids, Map<String, T> identityMap) {
+        List<Serializable> missIds = Lists.newArrayList();
+        for (Serializable id : ids) {
+            if (!identityMap.containsKey(String.valueOf(id))) {
+                missIds.add(id);
+            }
+        }
+        if (!missIds.isEmpty()) {
+            List<T> loadedList = this.loadListByIds(missIds);
+            if (loadedList != null) {
+                for (T entity : loadedList) {
+                    identityMap.put(String.valueOf(((LongIdEntity) entity).getId()), entity);
+                }
+            }
+        }
+
+        List<T> entityList = Lists.newArrayListWithCapacity(ids.size());
+        for (Serializable id : ids) {
+            T entity = identityMap.get(String.valueOf(id));
+            if (entity != null) {
+                entityList.add(entity);
+            }
+        }
+        return entityList.isEmpty() ? null : entityList;
+    }
+
+    /**
+     * 按id分段从数据库查询
+     *
+     * @param ids - 不重复的id
+     */
+    private List<T> loadListByIds(List<Serializable> ids) {
+        List<List<Serializable>> chunks = Lists.partition(ids, this.inChunkSize());
+        if (chunks.size() == INT_1) {
+            return this.findListByQuery(this.idQuery(Criteria.where(DBConstant.PK_NAME, CriteriaOperators.IN, chunks.get(INT_0))));
+        }
+
+        List<T> entityList = Lists.newArrayList();
+        ExecutorService executor = jdbcSettings.getInChunkExecutor();
+        ConsistencyLevelEnum consistencyLevel = router.consistencyLevel(null);
+        long maxStalenessMillis = ConsistencyContext.getScopeMaxStalenessMillis();
+        String tenantId = TenantContext.getTenantId();
+        //事物中的查询必须使用当前线程的连接;STRONG、READ_YOUR_WRITES依赖当前线程的状态,也在当前线程查询
+        if (executor == null || TransactionContext.isInTransaction()
+                || ConsistencyLevelEnum.STRONG.equals(consistencyLevel) || ConsistencyLevelEnum.READ_YOUR_WRITES.equals(consistencyLevel)) {
+            for (List<Serializable> chunk : chunks) {
+                List<T> chunkList = this.findListByQuery(this.idQuery(Criteria.where(DBConstant.PK_NAME, CriteriaOperators.IN, chunk)));
+                if (chunkList != null) {
+                    entityList.addAll(chunkList);
+                }
+            }
+        } else {
+            //每段各自readRoute,分散到多个读库并行查询,按分段顺序合并
+            List<Future<List<T>>> futures = Lists.newArrayListWithCapacity(chunks.size());
+            try {
+                for (List<Serializable> chunk : chunks) {
+                    futures.add(executor.submit(() -> TenantContext.execute(tenantId, () -> ConsistencyContext.execute(consistencyLevel, maxStalenessMillis,
+                            () -> this.findListByQuery(this.idQuery(Criteria.where(DBConstant.PK_NAME, CriteriaOperators.IN, chunk)))))));
+                }
+                for (Future<List<T>> future : futures) {
+                    List<T> chunkList = future.get();
+                    if (chunkList != null) {
+                        entityList.addAll(chunkList);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DaoException("findListByIds interrupted", e);
+            } catch (ExecutionException e) {
+                throw DaoExceptionTranslator.translate(e.getCause());
+            } catch (RuntimeException e) {
+                throw DaoExceptionTranslator.translate(e);
+            } finally {
+                for (Future<List<T>> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+        return entityList.isEmpty() ? null : entityList;
     }
 
     @Override
@@ -184,32 +421,495 @@ public abstract class JdbcBaseDao<T> implements ApplicationContextAware, IBaseDa
         checkArgumentQuery(query);
 
         List<Object> valueList = Lists.newArrayList();
-        StringBuilder sql = new StringBuilder();
 
+        TenantRouter.Lease lease = this.enterTenant();
         try {
-            sql.append(SELECT(query, entityMapper));
-            sql.append(FROM(entityClass));
-            sql.append(WHERE(query.getCriteria(), valueList, entityMapper));
-            sql.append(GROUP_BY(query.getGroupBys(), entityMapper));
-            sql.append(ORDER_BY(query.getOrderBys(), entityMapper));
-            sql.append(LIMIT(query.getOffset(), query.getLimit(), jdbcSettings.getDialectEnum(), sql));
+            List<ShardTarget<T>> targets = this.shardTargets(query.getCriteria());
+            if (targets.size() != INT_1) {
+                return this.scatterFindList(targets, query);
+            }
+            ShardTarget<T> target = targets.get(INT_0);
+            String sql = this.selectSql(target, query, valueList);
+            if (this.isQueryResultCacheReadable(query)) {
+                //权重按字段值个数估算
+                int columnCount = entityMapper.getPropertyToColumnMapper().size();
+                return queryResultCache.get(sql, valueList, () -> this.queryList(target, query, sql, valueList),
+                        entityList -> INT_1 + (entityList == null ? INT_0 : entityList.size() * columnCount), this::copyEntityList);
+            }
+            return this.queryList(target, query, sql, valueList);
+        } catch (RuntimeException e) {
+            throw DaoExceptionTranslator.translate(e);
+        } finally {
+            this.exitTenant(lease);
+        }
+    }
 
-            if (log.isDebugEnabled()) {
-                log.debug(formatSql(sql.toString(), valueList));
+    /**
+     * 跨分片查询:每个分片执行下推了offset+limit的子查询,按order by归并后取全局的offset和limit
+     * 分组查询不下推limit,合并相同分组的数量后再排序分页
+     */
+    private List<T> scatterFindList(List<ShardTarget<T>> targets, Query query) {
+        Query shardQuery = this.shardQuery(query);
+        List<List<T>> shardResults = scatterGatherExecutor.execute(targets, target -> {
+            List<Object> valueList = Lists.newArrayList();
+            return this.queryList(target, shardQuery, this.selectSql(target, shardQuery, valueList), valueList);
+        });
+
+        List<T> entityList;
+        if (CollectionUtils.isEmpty(query.getGroupBys())) {
+            entityList = ScatterGatherExecutor.merge(shardResults, this.orderComparator(query.getOrderBys()), query.getOffset(), query.getLimit());
+        } else {
+            List<T> groupList = this.mergeGroups(shardResults, query.getGroupBys());
+            Comparator<T> comparator = this.orderComparator(query.getOrderBys());
+            if (comparator != null) {
+                groupList.sort(comparator);
+            }
+            entityList = ScatterGatherExecutor.merge(Collections.singletonList(groupList), null, query.getOffset(), query.getLimit());
+        }
+        return entityList.isEmpty() ? null : entityList;
+    }
+
+    /**
+     * 跨分片count,各分片结果相加
+     */
+    private long scatterCount(List<ShardTarget<T>> targets, Criteria criteria) {
+        Query shardQuery = this.shardQuery(Query.query(criteria));
+        List<Long> counts = scatterGatherExecutor.execute(targets, target -> {
+            List<Object> valueList = Lists.newArrayList();
+            String sql = this.countSql(target, criteria, valueList);
+            return this.readRoute(target, shardQuery).queryForObject(sql, valueList.toArray(), Long.class);
+        });
+        long n = LONG_0;
+        for (Long count : counts) {
+            if (count != null) {
+                n += count;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * 下推到每个分片的query:offset为0,limit为offset+limit,分组查询不限制
+     * 一致性级别在调用线程确定,子查询可能在其他线程执行
+     */
+    private Query shardQuery(Query query) {
+        Query shardQuery = Query.query(query.getCriteria());
+        shardQuery.withGroupBy(query.getGroupBys().toArray(new GroupBy[query.getGroupBys().size()]));
+        shardQuery.withOrderBy(query.getOrderBys().toArray(new OrderBy[query.getOrderBys().size()]));
+        if (CollectionUtils.isNotEmpty(query.getFields())) {
+            shardQuery.includeField(query.getFields().toArray(new String[query.getFields().size()]));
+            //归并需要order by字段的值
+            for (OrderBy orderBy : query.getOrderBys()) {
+                if (!shardQuery.getFields().contains(orderBy.getKey())) {
+                    shardQuery.includeField(orderBy.getKey());
+                }
+            }
+        }
+        if (CollectionUtils.isEmpty(query.getGroupBys()) && query.getLimit() > INT_0) {
+            shardQuery.limit(query.getOffset() + query.getLimit());
+        }
+        if (StringUtils.isNotBlank(query.getHint())) {
+            shardQuery.withHint(query.getHint());
+        }
+        if (query.getBulkhead() != null) {
+            shardQuery.withBulkhead(query.getBulkhead());
+        }
+        if (query.isHedgedRead()) {
+            shardQuery.withHedgedRead();
+        }
+        if (query.getWorkload() != null) {
+            shardQuery.withWorkload(query.getWorkload());
+        }
+        ConsistencyLevelEnum consistencyLevel = router.resolveConsistencyLevel(query.getConsistencyLevel(), entityMapper.getTableName());
+        if (ConsistencyLevelEnum.BOUNDED_STALENESS.equals(consistencyLevel)) {
+            shardQuery.withMaxStaleness(router.maxStalenessMillis(query.getMaxStalenessMillis()));
+        } else {
+            shardQuery.withConsistency(consistencyLevel);
+        }
+        return shardQuery;
+    }
+
+    /**
+     * 按order by比较entity,null的位置和各分片的sql一致,见DialectEnum.nullsFirst
+     * 字符串按String.compareTo比较,数据库使用大小写不敏感等非二进制collation时归并顺序和单库排序可能不同,跨分片排序的字符串字段应使用二进制collation
+     *
+     * @return - 没有order by时返回null
+     */
+    @SuppressWarnings("unchecked")
+    private Comparator<T> orderComparator(List<OrderBy> orderBys) {
+        Comparator<T> comparator = null;
+        for (OrderBy orderBy : orderBys) {
+            PropertyAccessor accessor = entityMapper.getPropertyToAccessorMapper().get(orderBy.getKey());
+            if (accessor == null) {
+                throw new DaoMethodParameterException("Param orderBy key[" + orderBy.getKey() + "] is not a property of " + entityMapper.getEntityName());
+            }
+            Comparator<Comparable<Object>> valueComparator = jdbcSettings.getDialectEnum().nullsFirst()
+                    ? Comparator.nullsFirst(Comparator.<Comparable<Object>>naturalOrder()) : Comparator.nullsLast(Comparator.<Comparable<Object>>naturalOrder());
+            Comparator<T> current = Comparator.comparing(entity -> (Comparable<Object>) accessor.get(entity), valueComparator);
+            if (OrderBy.Direction.DESC.getDirection().equalsIgnoreCase(orderBy.getDirection())) {
+                current = current.reversed();
             }
+            comparator = comparator == null ? current : comparator.thenComparing(current);
+        }
+        return comparator;
+    }
 
-            List<Map<String, Object>> list = ((JdbcTemplate) router.readRoute()).queryForList(sql.toString(), valueList.toArray());
-            if (list == null || list.isEmpty()) {
-                return null;
+    /**
+     * 合并各分片相同分组的行,每组数量相加
+     */
+    private List<T> mergeGroups(List<List<T>> shardResults, List<GroupBy> groupBys) {
+        Map<List<Object>, T> groupMapper = Maps.newLinkedHashMap();
+        for (List<T> shardResult : shardResults) {
+            if (shardResult == null) {
+                continue;
             }
-            List<T> entityList = Lists.newArrayList();
-            for (Map<String, Object> map : list) {
-                entityList.add(map2Entity(map, entityMapper, entityClass));
+            for (T entity : shardResult) {
+                List<Object> key = Lists.newArrayListWithCapacity(groupBys.size());
+                for (GroupBy groupBy : groupBys) {
+                    key.add(entityMapper.getPropertyToAccessorMapper().get(groupBy.getKey()).get(entity));
+                }
+                T group = groupMapper.get(key);
+                if (group == null) {
+                    groupMapper.put(key, entity);
+                    continue;
+                }
+                for (GroupBy groupBy : groupBys) {
+                    if (StringUtils.isNotBlank(groupBy.getGroupCountAlias())) {
+                        PropertyAccessor accessor = entityMapper.getPropertyToAccessorMapper().get(groupBy.getGroupCountAlias());
+                        long count = ((Number) accessor.get(group)).longValue() + ((Number) accessor.get(entity)).longValue();
+                        accessor.set(group, Integer.class.equals(accessor.getType()) || int.class.equals(accessor.getType()) ? (Object) (int) count : (Object) count);
+                    }
+                }
             }
-            return entityList;
+        }
+        return Lists.newArrayList(groupMapper.values());
+    }
+
+    private List<T> queryList(ShardTarget<T> target, Query query, String sql, List<Object> valueList) {
+        List<T> entityList;
+        if (query.isHedgedRead()) {
+            entityList = target.getRouter().hedgedQuery(router.consistencyLevel(query.getConsistencyLevel()), entityMapper.getTableName(),
+                    query.getBulkhead() != null ? query.getBulkhead() : bulkhead, query.getWorkload() != null ? query.getWorkload() : workload,
+                    sql, valueList.toArray(), entityMapper.getRowMapper());
+        } else {
+            entityList = this.readRoute(target, query).query(sql, valueList.toArray(), entityMapper.getRowMapper());
+        }
+        return CollectionUtils.isEmpty(entityList) ? null : entityList;
+    }
+
+    /**
+     * 游标方式查询,逐行读取,适用于全表扫描等大结果集
+     * 未读取完毕时必须调用close释放连接,建议使用try-with-resources
+     *
+     * @param query - 查询条件
+     * @return - 游标
+     */
+    public EntityCursor<T> cursor(Query query) throws DaoException {
+        checkArgumentQuery(query);
+
+        List<Object> valueList = Lists.newArrayList();
+        //游标关闭时才释放租户的占用
+        TenantRouter.Lease lease = this.enterTenant();
+        try {
+            ShardTarget<T> target = this.shardTarget(query.getCriteria());
+            String sql = this.selectSql(target, query, valueList);
+            return new EntityCursor<T>(this.readRoute(target, query), entityMapper.getRowMapper(), sql, valueList.toArray(), this.streamFetchSize(),
+                    lease == null ? null : lease::release);
         } catch (RuntimeException e) {
+            if (lease != null) {
+                lease.release();
+            }
             throw DaoExceptionTranslator.translate(e);
+        } finally {
+            if (lease != null) {
+                tenantRouter.leave(lease);
+            }
+        }
+    }
+
+    /**
+     * 流式查询,Stream关闭时释放连接,建议使用try-with-resources
+     *
+     * @param query - 查询条件
+     * @return - 按行懒加载的Stream
+     */
+    public Stream<T> stream(Query query) throws DaoException {
+        return this.cursor(query).stream();
+    }
+
+    /**
+     * 流式查询,逐行回调consumer,结束后释放连接
+     *
+     * @param query    - 查询条件
+     * @param consumer - 每行entity的处理
+     */
+    public void forEach(Query query, Consumer<? super T> consumer) throws DaoException {
+        try (EntityCursor<T> cursor = this.cursor(query)) {
+            cursor.forEachRemaining(consumer);
+        }
+    }
+
+    /**
+     * IN列表分段大小
+     */
+    private int inChunkSize() {
+        return jdbcSettings.getInChunkSize() > INT_0 ? jdbcSettings.getInChunkSize() : Integer.MAX_VALUE;
+    }
+
+    /**
+     * 是否可以读取二级缓存,事物中读取数据库,避免缓存未提交的数据
+     */
+    private boolean isEntityCacheReadable() {
+        return entityCache != null && !TransactionContext.isInTransaction() && !this.isStrongConsistency(null) && !this.isTenantIsolated();
+    }
+
+    /**
+     * 把当前事物的更新应用到一级缓存中的对象,无法应用时从一级缓存移除,下次重新查询
+     */
+    private void applyToIdentityMap(Serializable id, Update update) {
+        Map<String, T> identityMap = TransactionContext.getIdentityMap(entityClass);
+        if (identityMap == null) {
+            return;
+        }
+        T entity = identityMap.get(String.valueOf(id));
+        if (entity == null) {
+            return;
+        }
+        try {
+            for (Map.Entry<String, Object> entry : update.getSetMap().entrySet()) {
+                PropertyAccessor accessor = entityMapper.getPropertyToAccessorMapper().get(entry.getKey());
+                if (accessor != null && !entityMapper.getNotNeedTransientPropertySet().contains(entry.getKey())) {
+                    accessor.set(entity, entry.getValue());
+                }
+            }
+        } catch (DaoException e) {
+            identityMap.remove(String.valueOf(id));
+        }
+    }
+
+    /**
+     * 是否可以读取查询结果缓存,事物中读取数据库
+     */
+    private boolean isQueryResultCacheReadable(Query query) {
+        return queryResultCache != null && !TransactionContext.isInTransaction() && !this.isStrongConsistency(query) && !this.isTenantIsolated();
+    }
+
+    /**
+     * 当前租户是否使用专用数据源,缓存按dao共享,专用数据源的读不使用缓存,避免不同租户相同id的数据互相覆盖
+     */
+    private boolean isTenantIsolated() {
+        return tenantRouter != null && tenantRouter.current() != router;
+    }
+
+    /**
+     * 是否要求强一致,强一致的读不使用缓存
+     */
+    private boolean isStrongConsistency(Query query) {
+        return ConsistencyLevelEnum.STRONG.equals(router.consistencyLevel(query == null ? null : query.getConsistencyLevel()));
+    }
+
+    /**
+     * 按query的一致性级别、舱壁分区和负载类型选择分片的读库,query为null时使用作用域或默认级别和dao的分区、负载类型
+     */
+    private JdbcTemplate readRoute(ShardTarget<T> target, Query query) {
+        if (query == null) {
+            return target.getRouter().readRoute(router.consistencyLevel(null), entityMapper.getTableName(), INT_0, bulkhead, workload);
+        }
+        return target.getRouter().readRoute(router.consistencyLevel(query.getConsistencyLevel()), entityMapper.getTableName(), query.getMaxStalenessMillis(),
+                query.getBulkhead() != null ? query.getBulkhead() : bulkhead, query.getWorkload() != null ? query.getWorkload() : workload);
+    }
+
+    private JdbcTemplate writeRoute(ShardTarget<T> target) {
+        return target.getRouter().writeRoute(bulkhead);
+    }
+
+    /**
+     * criteria对应的分片,未分片时为默认分片
+     * 分片的dao要求criteria包含分片键的EQ/IN条件且只命中一个分片
+     */
+    private ShardTarget<T> shardTarget(Criteria criteria) {
+        List<ShardTarget<T>> targets = this.shardTargets(criteria);
+        if (targets.size() == INT_1) {
+            return targets.get(INT_0);
+        }
+        throw new DaoException(entityMapper.getTableName() + "是分片表,该操作的条件必须包含分片键" + shardingRouter.getShardKey() + "的EQ/IN条件且只对应一个分片:" + criteria);
+    }
+
+    /**
+     * criteria可能命中的分片,不包含分片键的EQ/IN条件时为所有分片
+     */
+    private List<ShardTarget<T>> shardTargets(Criteria criteria) {
+        if (shardingRouter == null) {
+            return Collections.singletonList(this.defaultTarget());
+        }
+        Set<Integer> shards = shardingRouter.shardsOf(criteria);
+        if (shards == null) {
+            return shardingRouter.getTargets();
+        }
+        List<ShardTarget<T>> targets = Lists.newArrayListWithCapacity(shards.size());
+        for (Integer shard : shards) {
+            targets.add(shardingRouter.getTargets().get(shard));
+        }
+        return targets;
+    }
+
+    /**
+     * entity所在的分片,未分片时为默认分片
+     */
+    private ShardTarget<T> shardTarget(T entity) {
+        return shardingRouter == null ? this.defaultTarget() : shardingRouter.routeEntity(entity);
+    }
+
+    /**
+     * 未分片dao的分片,设置了tenantProvider时为当前dao调用占用的租户的数据源
+     */
+    private ShardTarget<T> defaultTarget() {
+        if (tenantRouter == null) {
+            return defaultTarget;
+        }
+        JdbcDatabaseRouter tenant = tenantRouter.current();
+        return tenant == router ? defaultTarget : new ShardTarget<T>(INT_0, tenant, entityMapper);
+    }
+
+    /**
+     * dao调用开始时占用当前租户,调用中只解析一次租户,占用期间租户不会被淘汰
+     *
+     * @return - 未设置tenantProvider或嵌套调用时返回null
+     */
+    private TenantRouter.Lease enterTenant() {
+        return tenantRouter == null ? null : tenantRouter.enter();
+    }
+
+    /**
+     * dao调用结束时释放占用
+     */
+    private void exitTenant(TenantRouter.Lease lease) {
+        if (lease != null) {
+            tenantRouter.leave(lease);
+            lease.release();
+        }
+    }
+
+    /**
+     * sql形状缓存的key,分表时包含物理表名
+     */
+    private String shapeKey(ShardTarget<T> target, String fingerprint) {
+        return target.getEntityMapper() == entityMapper ? fingerprint : target.getEntityMapper().getTableName() + fingerprint;
+    }
+
+    /**
+     * 写操作后增加表版本号并失效二级缓存
+     * 事物中在事物结束后再执行一次,避免提交前其他线程把旧值放入缓存
+     *
+     * @param invalidation - 二级缓存的失效方式,为null时只增加表版本号
+     */
+    private void afterWrite(Consumer<EntityCache<T>> invalidation) {
+        Runnable runnable = () -> {
+            tableVersion.bump();
+            ConsistencyContext.recordWrite(entityMapper.getTableName());
+            if (entityCache != null && invalidation != null) {
+                invalidation.accept(entityCache);
+            }
+        };
+        runnable.run();
+        if (TransactionContext.isInTransaction()) {
+            TransactionContext.registerAfterCompletion(runnable);
+        }
+    }
+
+    /**
+     * entity列表的拷贝,用于查询结果缓存
+     */
+    private List<T> copyEntityList(List<T> entityList) {
+        if (entityList == null) {
+            return null;
+        }
+        List<T> copyList = Lists.newArrayListWithCapacity(entityList.size());
+        for (T entity : entityList) {
+            copyList.add(entityMapper.getEntityAccessor().copy(entity));
         }
+        return copyList;
+    }
+
+    /**
+     * IN列表补齐上限,未开启补齐时为0
+     */
+    private int inListBucketLimit() {
+        return jdbcSettings.isInListPadding() ? this.inChunkSize() : INT_0;
+    }
+
+    /**
+     * 游标查询的fetchSize,未设置时mysql使用Integer.MIN_VALUE逐行流式读取
+     */
+    private int streamFetchSize() {
+        if (jdbcSettings.getStreamFetchSize() != INT_0) {
+            return jdbcSettings.getStreamFetchSize();
+        }
+        return DialectEnum.MYSQL.equals(jdbcSettings.getDialectEnum()) ? Integer.MIN_VALUE : DEFAULT_FETCH_SIZE;
+    }
+
+    /**
+     * 根据query拼装select语句
+     */
+    private String selectSql(ShardTarget<T> target, Query query, List<Object> valueList) {
+        String fingerprint = null;
+        if (sqlShapeCache != null) {
+            fingerprint = this.shapeKey(target, SqlShapeCache.fingerprint(query));
+            SqlShapeCache.SqlShape shape = sqlShapeCache.get(fingerprint);
+            if (shape != null) {
+                shape.extractValues(query.getCriteria(), valueList);
+                return this.recordSql(shape.getSql(), valueList);
+            }
+        }
+
+        StringBuilder sql = new StringBuilder();
+        sql.append(SELECT(query, entityMapper));
+        sql.append(FROM(target.getEntityMapper()));
+        sql.append(WHERE(query.getCriteria(), valueList, entityMapper, this.inListBucketLimit()));
+        sql.append(GROUP_BY(query.getGroupBys(), entityMapper));
+        sql.append(ORDER_BY(query.getOrderBys(), entityMapper, jdbcSettings.getDialectEnum()));
+        sql.append(LIMIT(query.getOffset(), query.getLimit(), jdbcSettings.getDialectEnum(), sql));
+
+        if (fingerprint != null) {
+            sqlShapeCache.put(fingerprint, new SqlShapeCache.SqlShape(sql.toString(), query.getCriteria(), this.inListBucketLimit()));
+        }
+        return this.recordSql(sql.toString(), valueList);
+    }
+
+    /**
+     * 根据criteria拼装count语句
+     */
+    private String countSql(ShardTarget<T> target, Criteria criteria, List<Object> valueList) {
+        String fingerprint = null;
+        if (sqlShapeCache != null) {
+            fingerprint = this.shapeKey(target, SqlShapeCache.fingerprint(criteria));
+            SqlShapeCache.SqlShape shape = sqlShapeCache.get(fingerprint);
+            if (shape != null) {
+                shape.extractValues(criteria, valueList);
+                return this.recordSql(shape.getSql(), valueList);
+            }
+        }
+
+        StringBuilder sql = new StringBuilder();
+        sql.append(SELECT_COUNT());
+        sql.append(FROM(target.getEntityMapper()));
+        sql.append(WHERE(criteria, valueList, entityMapper, this.inListBucketLimit()));
+
+        if (fingerprint != null) {
+            sqlShapeCache.put(fingerprint, new SqlShapeCache.SqlShape(sql.toString(), criteria, this.inListBucketLimit()));
+        }
+        return this.recordSql(sql.toString(), valueList);
+    }
+
+    /**
+     * 记录生成的sql并输出debug日志
+     */
+    private String recordSql(String sql, List<Object> valueList) {
+        statementStatistics.record(sql);
+        if (log.isDebugEnabled()) {
+            log.debug(formatSql(sql, valueList));
+        }
+        return sql;
     }
 
     @Override
@@ -223,33 +923,90 @@ public abstract class JdbcBaseDao<T> implements ApplicationContextAware, IBaseDa
         return this.findListByQuery(query);
     }
 
+    @Override
+    public SeekPage<T> findPageBySeek(Query query, SeekPageable seekPageable) throws DaoException {
+        checkArgumentQuery(query);
+        checkArgumentSeekPageable(query, seekPageable);
+
+        List<OrderBy> orderBys = seekOrderBys(query.getOrderBys());
+        //只查询部分字段时需要包含order by字段用于生成下一页token
+        if (CollectionUtils.isNotEmpty(query.getFields())) {
+            for (OrderBy orderBy : orderBys) {
+                if (!query.getFields().contains(orderBy.getKey())) {
+                    query.includeField(orderBy.getKey());
+                }
+            }
+        }
+
+        int pageSize = seekPageable.getPageSize();
+        List<Object> valueList = Lists.newArrayList();
+
+        TenantRouter.Lease lease = this.enterTenant();
+        try {
+            //条件、游标和order by和分片无关,只拼装一次
+            StringBuilder condition = new StringBuilder();
+            String where = WHERE(query.getCriteria(), valueList, entityMapper, this.inListBucketLimit());
+            condition.append(where);
+            if (StringUtils.isNotBlank(seekPageable.getToken())) {
+                List<Object> seekValues = SeekToken.decode(seekPageable.getToken());
+                if (seekValues.size() != orderBys.size() || seekValues.contains(null)) {
+                    throw new DaoMethodParameterException("Param token does not match the order by of query");
+                }
+                condition.append(SEEK(orderBys, seekValues, valueList, entityMapper, jdbcSettings.getDialectEnum(), StringUtils.isNotBlank(where)));
+            }
+            condition.append(ORDER_BY(orderBys, entityMapper, jdbcSettings.getDialectEnum()));
+
+            List<ShardTarget<T>> targets = this.shardTargets(query.getCriteria());
+            Query routeQuery = targets.size() == INT_1 ? query : this.shardQuery(query);
+            List<List<T>> shardResults = scatterGatherExecutor.execute(targets, target -> {
+                StringBuilder sql = new StringBuilder();
+                sql.append(SELECT(query, entityMapper));
+                sql.append(FROM(target.getEntityMapper()));
+                sql.append(condition);
+                //多取一行判断是否还有下一页
+                sql.append(LIMIT(INT_0, pageSize + INT_1, jdbcSettings.getDialectEnum(), sql));
+                this.recordSql(sql.toString(), valueList);
+                return this.readRoute(target, routeQuery).query(sql.toString(), valueList.toArray(), entityMapper.getRowMapper());
+            });
+            //跨分片时各分片的结果按order by归并,order by以id结尾,要求id全局唯一
+            List<T> entityList = targets.size() == INT_1 ? shardResults.get(INT_0)
+                    : ScatterGatherExecutor.merge(shardResults, this.orderComparator(orderBys), INT_0, pageSize + INT_1);
+            String nextToken = null;
+            if (entityList.size() > pageSize) {
+                entityList = entityList.subList(INT_0, pageSize);
+                nextToken = SeekToken.encode(seekValues(entityList.get(pageSize - INT_1), orderBys));
+            }
+            return new SeekPage<T>(entityList, nextToken);
+        } catch (RuntimeException e) {
+            throw DaoExceptionTranslator.translate(e);
+        } finally {
+            this.exitTenant(lease);
+        }
+    }
+
     @Override
     public List<T> findListBySql(String sql, LinkedHashMap<String, Object> param) throws DaoException {
         checkArgument(sql);
         List<Object> valueList = MapUtils.isEmpty(param) ? null : Lists.newArrayList(param.values());
 
+        TenantRouter.Lease lease = this.enterTenant();
         try {
             if (log.isDebugEnabled()) {
                 log.debug(formatSql(sql, valueList));
             }
 
-            List<Map<String, Object>> list;
+            ShardTarget<T> target = this.shardTarget((Criteria) null);
+            List<T> entityList;
             if (CollectionUtils.isEmpty(valueList)) {
-                list = ((JdbcTemplate) router.readRoute()).queryForList(sql);
+                entityList = this.readRoute(target, null).query(sql, entityMapper.getRowMapper());
             } else {
-                list = ((JdbcTemplate) router.readRoute()).queryForList(sql, valueList.toArray());
+                entityList = this.readRoute(target, null).query(sql, valueList.toArray(), entityMapper.getRowMapper());
             }
-
-            if (list == null || list.isEmpty()) {
-                return null;
-            }
-            List<T> entityList = Lists.newArrayList();
-            for (Map<String, Object> map : list) {
-                entityList.add(map2Entity(map, entityMapper, entityClass));
-            }
-            return entityList;
+            return CollectionUtils.isEmpty(entityList) ? null : entityList;
         } catch (RuntimeException e) {
             throw DaoExceptionTranslator.translate(e);
+        } finally {
+            this.exitTenant(lease);
         }
     }
 
@@ -261,9 +1018,11 @@ public abstract class JdbcBaseDao<T> implements ApplicationContextAware, IBaseDa
         final Long id = longIdEntity.getId() == null ? Long.valueOf(0) : longIdEntity.getId();
         final List<Object> valueList = Lists.newArrayList();
 
+        TenantRouter.Lease lease = this.enterTenant();
         try {
+            ShardTarget<T> target = this.shardTarget(entity);
             PreparedStatementCreator psc = connection -> {
-                String insertSqlToUse = INSERT(longIdEntity, valueList, entityMapper, entityClass, jdbcSettings.getDialectEnum(), connection);
+                String insertSqlToUse = INSERT(longIdEntity, valueList, target.getEntityMapper(), jdbcSettings.getDialectEnum(), connection);
                 PreparedStatement ps;
                 if (id.longValue() > LONG_0) {
                     ps = connection.prepareStatement(insertSqlToUse);
@@ -280,10 +1039,10 @@ public abstract class JdbcBaseDao<T> implements ApplicationContextAware, IBaseDa
 
             int n;
             if (id.longValue() > LONG_0 || DialectEnum.ORACLE.equals(jdbcSettings.getDialectEnum())) {//KeyHolder不支持oracle
-                n = ((JdbcTemplate) router.writeRoute()).update(psc);
+                n = this.writeRoute(target).update(psc);
             } else {
                 KeyHolder keyHolder = new GeneratedKeyHolder();
-                n = ((JdbcTemplate) router.writeRoute()).update(psc, keyHolder);
+                n = this.writeRoute(target).update(psc, keyHolder);
                 longIdEntity.setId(keyHolder.getKey().longValue());
             }
             return n;
@@ -291,6 +1050,132 @@ public abstract class JdbcBaseDao<T> implements ApplicationContextAware, IBaseDa
             throw new UniqueConstraintException(e.getCause().getLocalizedMessage(), e);
         } catch (RuntimeException e) {
             throw DaoExceptionTranslator.translate(e);
+        } finally {
+            this.afterWrite(null);
+            this.exitTenant(lease);
+        }
+    }
+
+    @Override
+    public int insertBatch(List<T> entityList) throws DaoException {
+        checkArgumentEntityList(entityList);
+
+        TenantRouter.Lease lease = this.enterTenant();
+        try {
+            if (shardingRouter == null) {
+                return this.insertBatch(this.defaultTarget(), entityList);
+            }
+            //按分片分组,每个分片批量插入一次
+            Map<ShardTarget<T>, List<T>> targetToEntityMapper = Maps.newLinkedHashMap();
+            for (T entity : entityList) {
+                targetToEntityMapper.computeIfAbsent(this.shardTarget(entity), target -> Lists.newArrayList()).add(entity);
+            }
+            int n = INT_0;
+            for (Map.Entry<ShardTarget<T>, List<T>> entry : targetToEntityMapper.entrySet()) {
+                n += this.insertBatch(entry.getKey(), entry.getValue());
+            }
+            return n;
+        } finally {
+            this.afterWrite(null);
+            this.exitTenant(lease);
+        }
+    }
+
+    private int insertBatch(ShardTarget<T> target, List<T> entityList) {
+        //按是否带id分成两种形状,每种形状只拼装一次sql
+        final List<LongIdEntity> withIdList = Lists.newArrayList();
+        final List<LongIdEntity> withoutIdList = Lists.newArrayList();
+        for (T entity : entityList) {
+            LongIdEntity longIdEntity = (LongIdEntity) entity;
+            if (longIdEntity.getId() != null && longIdEntity.getId().longValue() > LONG_0) {
+                withIdList.add(longIdEntity);
+            } else {
+                withoutIdList.add(longIdEntity);
+            }
+        }
+
+        try {
+            ConnectionCallback<Integer> action = connection -> {
+                if (!withoutIdList.isEmpty() && DialectEnum.ORACLE.equals(jdbcSettings.getDialectEnum())) {//oracle一次取出所有sequence,之后按带id插入
+                    List<Long> ids = genOracleIds(getOracleSequenceName(target.getEntityMapper()), withoutIdList.size(), connection);
+                    for (int i = INT_0; i < withoutIdList.size(); i++) {
+                        withoutIdList.get(i).setId(ids.get(i));
+                    }
+                    withIdList.addAll(withoutIdList);
+                    withoutIdList.clear();
+                }
+
+                int n = INT_0;
+                if (!withIdList.isEmpty()) {
+                    n += this.executeInsertBatch(connection, withIdList, true, target.getEntityMapper());
+                }
+                if (!withoutIdList.isEmpty()) {
+                    n += this.executeInsertBatch(connection, withoutIdList, false, target.getEntityMapper());
+                }
+                return n;
+            };
+            return this.writeRoute(target).execute(action);
+        } catch (DuplicateKeyException e) { //唯一约束或主键冲突
+            throw new UniqueConstraintException(e.getCause().getLocalizedMessage(), e);
+        } catch (RuntimeException e) {
+            throw DaoExceptionTranslator.translate(e);
+        }
+    }
+
+    /**
+     * 同一形状的entity使用同一个PreparedStatement按batchSize分批提交,不带id时把生成的主键设置回entity
+     * 驱动返回的主键数和插入行数不一致时无法对应到entity,抛出DaoException;不在事物中时本批次和之前的批次已经提交
+     */
+    private int executeInsertBatch(Connection connection, List<LongIdEntity> entityList, boolean withId, EntityMapper<T> tableMapper) throws SQLException {
+        String sql = INSERT(withId, tableMapper);
+        int batchSize = jdbcSettings.getBatchSize() > INT_0 ? jdbcSettings.getBatchSize() : entityList.size();
+
+        if (log.isDebugEnabled()) {
+            log.debug(formatSql(sql) + " batch rows:" + entityList.size());
+        }
+
+        PreparedStatement ps = null;
+        try {
+            if (withId) {
+                ps = connection.prepareStatement(sql);
+            } else {
+                ps = connection.prepareStatement(sql, new String[]{DBConstant.PK_NAME});
+            }
+
+            int n = INT_0;
+            for (int from = INT_0; from < entityList.size(); from += batchSize) {
+                List<LongIdEntity> batchList = entityList.subList(from, Math.min(from + batchSize, entityList.size()));
+                for (LongIdEntity longIdEntity : batchList) {
+                    int i = INT_0;
+                    for (Object value : INSERT_VALUES(longIdEntity, withId, entityMapper)) {
+                        StatementCreatorUtils.setParameterValue(ps, ++i, SqlTypeValue.TYPE_UNKNOWN, value);
+                    }
+                    ps.addBatch();
+                }
+                n += sumBatchCount(ps.executeBatch());
+
+                if (!withId) {
+                    ResultSet keys = ps.getGeneratedKeys();
+                    try {
+                        int count = INT_0;
+                        for (LongIdEntity longIdEntity : batchList) {
+                            if (!keys.next()) {
+                                break;
+                            }
+                            longIdEntity.setId(keys.getLong(INT_1));
+                            count++;
+                        }
+                        if (count != batchList.size() || keys.next()) {
+                            throw new DaoException("批量插入" + batchList.size() + "行,驱动返回的主键数不一致,无法设置entity的id");
+                        }
+                    } finally {
+                        JdbcUtils.closeResultSet(keys);
+                    }
+                }
+            }
+            return n;
+        } finally {
+            JdbcUtils.closeStatement(ps);
         }
     }
 
@@ -305,15 +1190,141 @@ public abstract class JdbcBaseDao<T> implements ApplicationContextAware, IBaseDa
     public int update(T entity, List<String> propetyList) throws DaoException {
         checkArgumentEntity(entity);
 
-        return this.updateById(((LongIdEntity) entity).getId(), DaoHelper.entity2Update(entity, propetyList));
+        Serializable id = ((LongIdEntity) entity).getId();
+        checkArgumentId(id);
+        TenantRouter.Lease lease = this.enterTenant();
+        try {
+            return this.updateById(this.shardTarget(entity), id, DaoHelper.entity2Update(entity, propetyList));
+        } finally {
+            this.exitTenant(lease);
+        }
+    }
+
+    @Override
+    public int[] updateBatch(final List<T> entityList, List<String> propetyList) throws DaoException {
+        checkArgumentEntityList(entityList);
+
+        List<Update> updateList = Lists.newArrayListWithCapacity(entityList.size());
+        for (T entity : entityList) {
+            checkArgumentId(((LongIdEntity) entity).getId());
+            Update update = DaoHelper.entity2Update(entity, propetyList);
+            update.getSetMap().keySet().removeAll(entityMapper.getNotNeedTransientPropertySet());
+            checkArgumentUpdate(update);
+            updateList.add(update);
+        }
+
+        int[] counts = new int[entityList.size()];
+        TenantRouter.Lease lease = this.enterTenant();
+        try {
+            //entity2Update包含null值,set的属性只由propetyList和entity的class决定;按分片和class分组,每组只拼装一次sql
+            Map<ShardTarget<T>, Map<Class<?>, List<Integer>>> targetToClassMapper = Maps.newLinkedHashMap();
+            for (int i = INT_0; i < entityList.size(); i++) {
+                targetToClassMapper.computeIfAbsent(this.shardTarget(entityList.get(i)), target -> Maps.newLinkedHashMap())
+                        .computeIfAbsent(entityList.get(i).getClass(), clazz -> Lists.newArrayList())
+                        .add(i);
+            }
+            for (Map.Entry<ShardTarget<T>, Map<Class<?>, List<Integer>>> targetEntry : targetToClassMapper.entrySet()) {
+                for (List<Integer> indexList : targetEntry.getValue().values()) {
+                    this.executeUpdateBatch(targetEntry.getKey(), indexList, entityList, updateList, counts);
+                }
+            }
+
+            for (int i = INT_0; i < entityList.size(); i++) {
+                this.applyToIdentityMap(((LongIdEntity) entityList.get(i)).getId(), updateList.get(i));
+            }
+            return counts;
+        } catch (RuntimeException e) {
+            throw DaoExceptionTranslator.translate(e);
+        } finally {
+            List<Serializable> ids = Lists.newArrayListWithCapacity(entityList.size());
+            for (T entity : entityList) {
+                ids.add(((LongIdEntity) entity).getId());
+            }
+            this.afterWrite(cache -> cache.invalidate(ids));
+            this.exitTenant(lease);
+        }
+    }
+
+    /**
+     * 同一分片、同一class的更新set的属性相同,使用一条sql按batchSize分批提交,影响行数写入counts对应位置
+     */
+    private void executeUpdateBatch(ShardTarget<T> target, List<Integer> indexList, List<T> entityList, List<Update> updateList, int[] counts) {
+        //按主键排序,并发批量更新时加锁顺序一致,减少锁等待和死锁
+        indexList.sort(Comparator.comparing(i -> ((LongIdEntity) entityList.get(i)).getId()));
+
+        List<Object> valueList = Lists.newArrayList();
+        StringBuilder sql = new StringBuilder();
+        sql.append(UPDATE(target.getEntityMapper()));
+        sql.append(SET(updateList.get(indexList.get(INT_0)), valueList, entityMapper));
+        sql.append(WHERE_ID());
+
+        List<String> shape = Lists.newArrayList(updateList.get(indexList.get(INT_0)).getSetMap().keySet());
+        List<Object[]> batchArgs = Lists.newArrayListWithCapacity(indexList.size());
+        for (Integer index : indexList) {
+            Update update = updateList.get(index);
+            Object[] args = new Object[shape.size() + INT_1];
+            for (int i = INT_0; i < shape.size(); i++) {
+                args[i] = update.get(shape.get(i));
+            }
+            args[shape.size()] = ((LongIdEntity) entityList.get(index)).getId();
+            batchArgs.add(args);
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug(formatSql(sql.toString()) + " batch rows:" + batchArgs.size());
+        }
+
+        int batchSize = jdbcSettings.getBatchSize() > INT_0 ? jdbcSettings.getBatchSize() : batchArgs.size();
+        int[][] batchCounts = this.writeRoute(target).batchUpdate(sql.toString(), batchArgs, batchSize, (ps, args) -> {
+            for (int i = INT_0; i < args.length; i++) {
+                StatementCreatorUtils.setParameterValue(ps, i + INT_1, SqlTypeValue.TYPE_UNKNOWN, args[i]);
+            }
+        });
+
+        int pos = INT_0;
+        for (int[] batchCount : batchCounts) {
+            for (int count : batchCount) {
+                counts[indexList.get(pos++)] = count == Statement.SUCCESS_NO_INFO ? INT_1 : count;
+            }
+        }
     }
 
     @Override
     public int updateById(Serializable id, Update update) throws DaoException {
         checkArgumentId(id);
+
+        TenantRouter.Lease lease = this.enterTenant();
+        try {
+            return this.updateById(this.shardTarget(Criteria.where(DBConstant.PK_NAME, id)), id, update);
+        } finally {
+            this.exitTenant(lease);
+        }
+    }
+
+    private int updateById(ShardTarget<T> target, Serializable id, Update update) {
         checkArgumentUpdate(update);
 
-        return this.updateByCriteria(Criteria.where(DBConstant.PK_NAME, id), update);
+        List<Object> valueList = Lists.newArrayList();
+        StringBuilder sql = new StringBuilder();
+
+        try {
+            //按id更新不需要拼装criteria,直接使用WHERE id = ?
+            sql.append(UPDATE(target.getEntityMapper()));
+            sql.append(SET(update, valueList, entityMapper));
+            sql.append(WHERE_ID());
+            valueList.add(id);
+
+            if (log.isDebugEnabled()) {
+                log.debug(formatSql(sql.toString(), valueList));
+            }
+            int n = this.writeRoute(target).update(sql.toString(), valueList.toArray());
+            this.applyToIdentityMap(id, update);
+            return n;
+        } catch (RuntimeException e) {
+            throw DaoExceptionTranslator.translate(e);
+        } finally {
+            this.afterWrite(cache -> cache.invalidate(id));
+        }
     }
 
     @Override
@@ -321,7 +1332,20 @@ public abstract class JdbcBaseDao<T> implements ApplicationContextAware, IBaseDa
         checkArgumentIds(ids);
         checkArgumentUpdate(update);
 
-        return this.updateByCriteria(Criteria.where(DBConstant.PK_NAME, CriteriaOperators.IN, ids), update);
+        int n = INT_0;
+        TenantRouter.Lease lease = this.enterTenant();
+        try {
+            for (List<Serializable> chunk : Lists.partition(distinctIds(ids), this.inChunkSize())) {
+                n += this.executeUpdateByCriteria(Criteria.where(DBConstant.PK_NAME, CriteriaOperators.IN, chunk), update);
+                for (Serializable id : chunk) {
+                    this.applyToIdentityMap(id, update);
+                }
+            }
+        } finally {
+            this.afterWrite(cache -> cache.invalidate(ids));
+            this.exitTenant(lease);
+        }
+        return n;
     }
 
     @Override
@@ -329,18 +1353,35 @@ public abstract class JdbcBaseDao<T> implements ApplicationContextAware, IBaseDa
         checkArgumentCriteria(criteria);
         checkArgumentUpdate(update);
 
+        TenantRouter.Lease lease = this.enterTenant();
+        try {
+            return this.executeUpdateByCriteria(criteria, update);
+        } finally {
+            //无法确定影响的id,清空一级缓存和二级缓存
+            Map<String, T> identityMap = TransactionContext.getIdentityMap(entityClass);
+            if (identityMap != null) {
+                identityMap.clear();
+            }
+            this.afterWrite(EntityCache::invalidateAll);
+            this.exitTenant(lease);
+        }
+    }
+
+    private int executeUpdateByCriteria(Criteria criteria, Update update) {
         List<Object> valueList = Lists.newArrayList();
         StringBuilder sql = new StringBuilder();
 
         try {
-            sql.append(UPDATE(entityClass));
+            ShardTarget<T> target = this.shardTarget(criteria);
+            sql.append(UPDATE(target.getEntityMapper()));
             sql.append(SET(update, valueList, entityMapper));
-            sql.append(WHERE(criteria, valueList, entityMapper));
+            sql.append(WHERE(criteria, valueList, entityMapper, this.inListBucketLimit()));
 
+            statementStatistics.record(sql.toString());
             if (log.isDebugEnabled()) {
                 log.debug(formatSql(sql.toString(), valueList));
             }
-            return ((JdbcTemplate) router.writeRoute()).update(sql.toString(), valueList.toArray());
+            return this.writeRoute(target).update(sql.toString(), valueList.toArray());
         } catch (RuntimeException e) {
             throw DaoExceptionTranslator.translate(e);
         }
@@ -351,19 +1392,26 @@ public abstract class JdbcBaseDao<T> implements ApplicationContextAware, IBaseDa
         checkArgument(sql);
 
         List<Object> valueList = MapUtils.isEmpty(param) ? null : Lists.newArrayList(param.values());
+        TenantRouter.Lease lease = this.enterTenant();
         try {
             if (log.isDebugEnabled()) {
                 log.debug(formatSql(sql, valueList));
             }
 
+            ShardTarget<T> target = this.shardTarget((Criteria) null);
             if (CollectionUtils.isEmpty(valueList)) {
-                return ((JdbcTemplate) router.writeRoute()).update(sql);
+                return this.writeRoute(target).update(sql);
             } else {
-                return ((JdbcTemplate) router.writeRoute()).update(sql, valueList.toArray());
+                return this.writeRoute(target).update(sql, valueList.toArray());
             }
 
         } catch (RuntimeException e) {
             throw DaoExceptionTranslator.translate(e);
+        } finally {
+            //sql可能修改任意表,清空当前事物所有一级缓存
+            TransactionContext.clearIdentityMaps();
+            this.afterWrite(EntityCache::invalidateAll);
+            this.exitTenant(lease);
         }
     }
 
@@ -372,16 +1420,25 @@ public abstract class JdbcBaseDao<T> implements ApplicationContextAware, IBaseDa
         checkArgumentId(id);
 
         StringBuilder sql = new StringBuilder();
+        TenantRouter.Lease lease = this.enterTenant();
         try {
-            sql.append(DELETE(entityClass));
+            ShardTarget<T> target = this.shardTarget(Criteria.where(DBConstant.PK_NAME, id));
+            sql.append(DELETE(target.getEntityMapper()));
             if (log.isDebugEnabled()) {
                 List<Object> valueList = Lists.newArrayList(id);
                 log.debug(formatSql(sql.toString(), valueList));
             }
 
-            return ((JdbcTemplate) router.writeRoute()).update(sql.toString(), new Object[]{id});
+            return this.writeRoute(target).update(sql.toString(), new Object[]{id});
         } catch (RuntimeException e) {
             throw DaoExceptionTranslator.translate(e);
+        } finally {
+            Map<String, T> identityMap = TransactionContext.getIdentityMap(entityClass);
+            if (identityMap != null) {
+                identityMap.remove(String.valueOf(id));
+            }
+            this.afterWrite(cache -> cache.invalidate(id));
+            this.exitTenant(lease);
         }
     }
 
@@ -515,6 +1572,50 @@ public abstract class JdbcBaseDao<T> implements ApplicationContextAware, IBaseDa
         return this.findListByQuery(query, pageable);
     }
 
+    @Override
+    public AsyncBaseDao<T> async() {
+        if (asyncBaseDao == null) {
+            synchronized (this) {
+                if (asyncBaseDao == null) {
+                    ExecutorService executor = AsyncExecutors.getExecutor(jdbcSettings, jdbcSettings.getAsyncThreads(), jdbcSettings.getAsyncQueueSize(),
+                            CollectionUtils.isEmpty(jdbcSettings.getWriteDataSource()) ? null : jdbcSettings.getWriteDataSource().get(INT_0));
+                    asyncBaseDao = new AsyncBaseDao<T>(this, executor, TransactionContext::isInTransaction, this::asyncTask);
+                }
+            }
+        }
+        return asyncBaseDao;
+    }
+
+    /**
+     * 在调用线程确定租户和一致性级别,异步任务在同样的TenantContext和ConsistencyContext作用域中执行
+     * READ_YOUR_WRITES:调用线程最近写过该表时按STRONG执行,否则任务内按任务自己的写记录判断;
+     * 任务前后清空线程池线程的会话,避免复用线程时受其他任务的写记录影响
+     * 任务取消或超时时由StatementCanceller取消正在执行的语句
+     */
+    private Runnable asyncTask(Runnable task) {
+        ConsistencyLevelEnum consistencyLevel = router.consistencyLevel(null);
+        if (ConsistencyLevelEnum.READ_YOUR_WRITES.equals(consistencyLevel)) {
+            consistencyLevel = router.resolveConsistencyLevel(null, entityMapper.getTableName());
+            if (ConsistencyLevelEnum.EVENTUAL.equals(consistencyLevel)) {
+                consistencyLevel = ConsistencyLevelEnum.READ_YOUR_WRITES;
+            }
+        }
+        ConsistencyLevelEnum scopeLevel = consistencyLevel;
+        long maxStalenessMillis = ConsistencyContext.getScopeMaxStalenessMillis();
+        String tenantId = TenantContext.getTenantId();
+        return new StatementCanceller(() -> {
+            ConsistencyContext.clearSession();
+            try {
+                TenantContext.execute(tenantId, () -> ConsistencyContext.execute(scopeLevel, maxStalenessMillis, () -> {
+                    task.run();
+                    return null;
+                }));
+            } finally {
+                ConsistencyContext.clearSession();
+            }
+        });
+    }
+
     @Override
     public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
         this.applicationContext = applicationContext;
@@ -554,6 +1655,30 @@ public abstract class JdbcBaseDao<T> implements ApplicationContextAware, IBaseDa
         //create router
         JdbcDatabaseRouterFactory.INSTANCE.setDatabaseRouter(this.jdbcSettings);
         this.entityMapper = new EntityMapper(this.entityClass);
-        this.router = JdbcDatabaseRouterFactory.INSTANCE.getDatabaseRouter(this.jdbcSettings);
+        this.router = (JdbcDatabaseRouter) JdbcDatabaseRouterFactory.INSTANCE.getDatabaseRouter(this.jdbcSettings);
+        this.defaultTarget = new ShardTarget<T>(INT_0, this.router, this.entityMapper);
+        this.scatterGatherExecutor = new ScatterGatherExecutor(this.jdbcSettings);
+        this.bulkhead = StringUtils.isNotBlank(daoDescription.bulkhead()) ? daoDescription.bulkhead() : null;
+        this.hedgedReads = daoDescription.hedgedReads();
+        this.workload = StringUtils.isNotBlank(daoDescription.workload()) ? daoDescription.workload() : null;
+        String shardKey = StringUtils.isNotBlank(daoDescription.shardKey()) ? daoDescription.shardKey() : tableAnnotation.shardKey();
+        this.tenantRouter = JdbcDatabaseRouterFactory.INSTANCE.getTenantRouter(this.jdbcSettings);
+        if (StringUtils.isNotBlank(shardKey)) {
+            if (this.tenantRouter != null) {
+                throw new DaoException(this.entityClass.getName() + " 分片dao不支持租户路由,settings[" + settingsName + "]不能设置tenantProvider");
+            }
+            this.shardingRouter = new ShardingRouter<T>(this.entityClass, this.entityMapper, shardKey, this.router, this.jdbcSettings);
+        }
+        //缓存未命中时从读库加载,写操作后readYourWritesMillis内读库可能还没有复制到写操作,加载的结果不放入缓存
+        this.entityCache = EntityCache.create(this.entityClass, daoDescription.cacheMaximumSize(), daoDescription.cacheExpireSeconds(),
+                this.jdbcSettings.getReadYourWritesMillis());
+        this.tableVersion = QueryResultCache.tableVersion(entityMapper.getTableName());
+        if (daoDescription.queryCacheMaximumWeight() > INT_0) {
+            this.queryResultCache = new QueryResultCache(entityMapper.getTableName(), daoDescription.queryCacheMaximumWeight(), daoDescription.cacheExpireSeconds(),
+                    this.jdbcSettings.getReadYourWritesMillis());
+        }
+        if (this.jdbcSettings.getSqlShapeCacheSize() > INT_0) {
+            this.sqlShapeCache = new SqlShapeCache(this.jdbcSettings.getSqlShapeCacheSize());
+        }
     }
 }
\ No newline at end of file
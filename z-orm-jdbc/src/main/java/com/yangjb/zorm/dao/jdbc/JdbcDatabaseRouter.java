@@ -1,57 +1,729 @@
 package com.yangjb.zorm.dao.jdbc;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.yangjb.zorm.dao.DatabaseRouter;
+import com.yangjb.zorm.dao.jdbc.enums.DialectEnum;
 import com.yangjb.zorm.dao.jdbc.transaction.TransactionContext;
+import com.yangjb.zorm.exception.DaoException;
+import com.yangjb.zorm.exception.DaoMethodParameterException;
+import com.yangjb.zorm.query.ConsistencyLevelEnum;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.sql.DataSource;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 简单JdbcTemplate路由器
- * TODO:后续结合sharding-jdbc
+ * 读库按负载均衡策略选择,连续失败的读库被摘除,全部摘除时读写库
+ * 读操作按一致性级别路由:STRONG读写库;READ_YOUR_WRITES在当前线程写表后一段时间内读写库;
+ * BOUNDED_STALENESS只读定时测量的复制延迟不超过上限的读库
+ * 设置了shards时每个分片有自己的路由器,设置了分片键的dao通过ShardingRouter选择分片
+ * 配置了多个写库时定时校验当前写库,不可用时自动切换到下一个写库
+ * 读写库保存在不可变的快照中,运行中通过reload整体替换,路由时无锁读取
+ * 设置了hedgeExecutor时支持对冲读,降低读库偶发停顿造成的长尾延迟
+ * 设置了readGroups时按负载类型选择专用读库组,组内读库全部不可用时使用默认读库
  *
  * @Author zhoutao
  * @Date 2017/6/8
  */
+@Slf4j
 public class JdbcDatabaseRouter implements DatabaseRouter {
-    private List<JdbcTemplate> writeJdbcTemplate = Lists.newArrayList();
-    private List<JdbcTemplate> readJdbcTemplate = Lists.newArrayList();
+    private static final String MYSQL_LAG_SQL = "SHOW SLAVE STATUS";
+    private static final String MYSQL_LAG_COLUMN = "Seconds_Behind_Master";
+    //连续多少个测量周期没有测量结果时视为延迟未知
+    private static final int LAG_EXPIRE_CHECKS = 3;
+    private static final String DEFAULT_VALIDATION_SQL = "SELECT 1";
+    private static final String ORACLE_VALIDATION_SQL = "SELECT 1 FROM DUAL";
+    private static final long DRAIN_CHECK_MILLIS = 100;
+    //所有路由器共用,只用于排空检查,不获取连接
+    private static final ScheduledExecutorService DRAIN_SCHEDULER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "zorm-router-drain");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LoadBalancer loadBalancer;
+    private final JdbcSettings jdbcSettings;
+    private final List<JdbcDatabaseRouter> shardRouters = Lists.newArrayList();
+    //读写库快照,路由时只读取一次,reload时整体替换
+    private volatile Topology topology;
+    //未设置hedgeExecutor时为null
+    private final HedgedReader hedgedReader;
+    //本路由器的复制延迟测量和写库健康检查,检查需要获取连接,失效的数据源只阻塞本路由器的检查;都未开启时为null
+    private ScheduledExecutorService healthChecker;
+    //未开启复制延迟测量时为null
+    private final ScheduledFuture<?> lagCheck;
+    private volatile boolean closed;
 
     public JdbcDatabaseRouter(JdbcSettings jdbcSettings) {
+        this.loadBalancer = jdbcSettings.getLoadBalancer() != null ? jdbcSettings.getLoadBalancer() : LoadBalancer.of(jdbcSettings.getLoadBalanceEnum());
+        this.jdbcSettings = jdbcSettings;
+        this.hedgedReader = jdbcSettings.getHedgeExecutor() == null ? null : new HedgedReader(jdbcSettings);
+        this.topology = this.newTopology(jdbcSettings.getWriteDataSource(), jdbcSettings.getReadDataSource(), jdbcSettings.getReadWeights(),
+                jdbcSettings.getReadGroups(), null);
+
+        //shards
+        if (CollectionUtils.isNotEmpty(jdbcSettings.getShards())) {
+            for (JdbcSettings shardSettings : jdbcSettings.getShards()) {
+                shardRouters.add(new JdbcDatabaseRouter(shardSettings));
+            }
+        }
+
+        //复制延迟,reload可能增加读库,没有读库时也开启
+        long lagCheckMillis = jdbcSettings.getReplicaLagCheckMillis();
+        if (lagCheckMillis > 0 && this.lagSql() != null) {
+            this.lagCheck = this.healthChecker().scheduleWithFixedDelay(this::measureLag, 0, lagCheckMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.lagCheck = null;
+        }
+    }
+
+    /**
+     * 运行中替换读写库,不修改JdbcSettings
+     * 新旧拓扑中都存在的数据源(按对象引用判断,读库还要求权重相同)保留原有的状态;切换后新的请求只路由到新拓扑
+     * 移除的数据源等待正在执行的请求结束(最多drainTimeoutMillis)后返回,由调用方关闭
+     * 已开启事物的连接由事物管理器持有,不在排空范围内
+     *
+     * @param writeDataSource - 写库,不能为空
+     * @param readDataSource  - 读库,可以为空
+     * @param readWeights     - 读库权重,和readDataSource一一对应,可以为null
+     * @return - 排空完成后返回被移除的数据源
+     */
+    public CompletableFuture<List<DataSource>> reload(List<DataSource> writeDataSource, List<DataSource> readDataSource, List<Integer> readWeights) {
+        return this.reload(writeDataSource, readDataSource, readWeights, null);
+    }
+
+    /**
+     * 运行中替换读写库和负载类型的读库组
+     *
+     * @param writeDataSource - 写库,不能为空
+     * @param readDataSource  - 读库,可以为空
+     * @param readWeights     - 读库权重,和readDataSource一一对应,可以为null
+     * @param readGroups      - 负载类型到读库组,为null时保留当前的读库组,清空读库组传入空map
+     * @return - 排空完成后返回被移除的数据源
+     * @see #reload(List, List, List)
+     */
+    public synchronized CompletableFuture<List<DataSource>> reload(List<DataSource> writeDataSource, List<DataSource> readDataSource, List<Integer> readWeights,
+                                                                   Map<String, List<DataSource>> readGroups) {
+        if (CollectionUtils.isEmpty(writeDataSource)) {
+            throw new DaoMethodParameterException("Param writeDataSource must be not empty");
+        }
+        if (closed) {
+            throw new DaoException("router已关闭");
+        }
+        Topology old = this.topology;
+        Topology current = this.newTopology(writeDataSource, readDataSource, readWeights, readGroups != null ? readGroups : old.readGroupDataSources(), old);
+        this.topology = current;
+        if (old.primaryCheck != null) {
+            old.primaryCheck.cancel(false);
+        }
+
+        Set<ReplicaNode> currentNodes = Sets.newHashSet(current.allNodes());
+        List<ReplicaNode> removed = Lists.newArrayList();
+        for (ReplicaNode node : old.allNodes()) {
+            if (!currentNodes.contains(node)) {
+                removed.add(node);
+            }
+        }
+        log.info("reload router: primaries " + old.primaries.size() + "->" + current.primaries.size()
+                + ", replicas " + old.readReplicas.size() + "->" + current.readReplicas.size() + ", readGroups " + old.readGroups.keySet() + "->"
+                + current.readGroups.keySet() + ", draining " + removed.size());
+
+        CompletableFuture<List<DataSource>> drained = new CompletableFuture<List<DataSource>>();
+        long deadline = System.currentTimeMillis() + jdbcSettings.getDrainTimeoutMillis();
+        DRAIN_SCHEDULER.execute(() -> this.drain(removed, deadline, drained));
+        return drained;
+    }
+
+    /**
+     * 停止健康检查和复制延迟测量,等待正在执行的请求结束(最多drainTimeoutMillis)后返回全部数据源,由调用方关闭
+     * 关闭后不能再reload;刚取得路由器的请求可能在关闭后开始,因此第一次检查延迟一个检查周期
+     *
+     * @return - 排空完成后返回路由器和分片路由器的全部数据源
+     */
+    public synchronized CompletableFuture<List<DataSource>> close() {
+        if (closed) {
+            throw new DaoException("router已关闭");
+        }
+        closed = true;
+        Topology old = this.topology;
+        if (lagCheck != null) {
+            lagCheck.cancel(false);
+        }
+        if (old.primaryCheck != null) {
+            old.primaryCheck.cancel(false);
+        }
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+        }
+
+        List<ReplicaNode> removed = Lists.newArrayList(Sets.newLinkedHashSet(old.allNodes()));
+        CompletableFuture<List<DataSource>> drained = new CompletableFuture<List<DataSource>>();
+        long deadline = System.currentTimeMillis() + jdbcSettings.getDrainTimeoutMillis();
+        DRAIN_SCHEDULER.schedule(() -> this.drain(removed, deadline, drained), DRAIN_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+        CompletableFuture<List<DataSource>> all = drained;
+        for (JdbcDatabaseRouter shardRouter : shardRouters) {
+            all = all.thenCombine(shardRouter.close(), (dataSources, shardDataSources) -> {
+                List<DataSource> merged = Lists.newArrayList(dataSources);
+                merged.addAll(shardDataSources);
+                return merged;
+            });
+        }
+        return all;
+    }
+
+    /**
+     * 本路由器的检查线程,第一次开启复制延迟测量或写库健康检查时创建,关闭路由器时停止
+     */
+    private synchronized ScheduledExecutorService healthChecker() {
+        if (healthChecker == null) {
+            ScheduledThreadPoolExecutor checker = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread thread = new Thread(r, "zorm-router-health");
+                thread.setDaemon(true);
+                return thread;
+            });
+            checker.setRemoveOnCancelPolicy(true);
+            healthChecker = checker;
+        }
+        return healthChecker;
+    }
+
+    /**
+     * 正在执行的请求数,不包括分片路由器
+     */
+    int getInFlight() {
+        int inFlight = 0;
+        for (ReplicaNode node : Sets.newHashSet(topology.allNodes())) {
+            inFlight += node.getInFlight();
+        }
+        return inFlight;
+    }
+
+    /**
+     * 检查移除的数据源是否已排空,未排空且未超时时稍后再检查
+     */
+    private void drain(List<ReplicaNode> removed, long deadline, CompletableFuture<List<DataSource>> drained) {
+        int inFlight = 0;
+        for (ReplicaNode node : removed) {
+            inFlight += node.getInFlight();
+        }
+        if (inFlight > 0 && System.currentTimeMillis() < deadline) {
+            DRAIN_SCHEDULER.schedule(() -> this.drain(removed, deadline, drained), DRAIN_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            return;
+        }
+        if (inFlight > 0) {
+            log.warn("drain timeout, " + inFlight + " requests still in flight");
+        }
+        Set<DataSource> dataSources = Sets.newLinkedHashSet();
+        for (ReplicaNode node : removed) {
+            dataSources.add(node.getDataSource());
+        }
+        //同一个数据源同时是读库和写库时,只在都被移除时返回;关闭时全部返回
+        if (!closed) {
+            for (ReplicaNode node : this.topology.allNodes()) {
+                dataSources.remove(node.getDataSource());
+            }
+        }
+        drained.complete(Lists.newArrayList(dataSources));
+    }
+
+    /**
+     * 创建拓扑,old中相同的数据源复用原来的节点
+     */
+    private Topology newTopology(List<DataSource> writeList, List<DataSource> readList, List<Integer> readWeights, Map<String, List<DataSource>> readGroupList,
+                                 Topology old) {
         //write
-        List<DataSource> writeList = jdbcSettings.getWriteDataSource();
+        List<ReplicaNode> primaries = Lists.newArrayList();
         if (CollectionUtils.isNotEmpty(writeList)) {
             for (DataSource dataSource : writeList) {
-                JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
-                writeJdbcTemplate.add(jdbcTemplate);
+                ReplicaNode node = old == null ? null : find(old.primaries, dataSource, 1);
+                if (node == null) {
+                    node = new ReplicaNode(dataSource, 1, 0, 0, jdbcSettings.getBulkheads(), this.newLimiter());
+                    node.setQueryTimeout(jdbcSettings.getWriteQueryTimeoutSeconds());
+                }
+                primaries.add(node);
             }
         }
 
         //read
-        List<DataSource> readList = jdbcSettings.getReadDataSource();
-        if (CollectionUtils.isNotEmpty(readList)) {
-            for (DataSource dataSource : readList) {
-                JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
-                readJdbcTemplate.add(jdbcTemplate);
+        List<ReplicaNode> readReplicas = this.newReadReplicas(readList, readWeights, old == null ? null : old.readReplicas);
+
+        //readGroups,空的组不参与路由
+        Map<String, List<ReplicaNode>> readGroups = Maps.newHashMap();
+        if (readGroupList != null) {
+            for (Map.Entry<String, List<DataSource>> entry : readGroupList.entrySet()) {
+                if (CollectionUtils.isNotEmpty(entry.getValue())) {
+                    List<ReplicaNode> oldGroup = old == null ? null : old.readGroups.get(entry.getKey());
+                    readGroups.put(entry.getKey(), Collections.unmodifiableList(this.newReadReplicas(entry.getValue(), null, oldGroup)));
+                }
+            }
+        }
+
+        //写库切换,当前写库仍在新拓扑中时继续使用
+        PrimaryFailover primaryFailover = null;
+        ScheduledFuture<?> primaryCheck = null;
+        long primaryCheckMillis = jdbcSettings.getPrimaryCheckMillis();
+        if (primaryCheckMillis > 0 && primaries.size() > 1) {
+            //切换只拒绝新的写操作,已发出的写操作依赖超时才能从失效的写库返回
+            if (jdbcSettings.getWriteQueryTimeoutSeconds() <= 0) {
+                throw new DaoException("开启写库切换(primaryCheckMillis>0)时必须设置writeQueryTimeoutSeconds");
+            }
+            int activeIndex = old == null ? 0 : Math.max(primaries.indexOf(old.activePrimary()), 0);
+            List<JdbcTemplate> writeJdbcTemplate = Lists.newArrayListWithCapacity(primaries.size());
+            for (ReplicaNode node : primaries) {
+                writeJdbcTemplate.add(node.getHealthJdbcTemplate());
+            }
+            primaryFailover = new PrimaryFailover(writeJdbcTemplate, activeIndex, this.validationSql(),
+                    jdbcSettings.getPrimaryValidationTimeoutSeconds(), jdbcSettings.getPrimaryFailoverThreshold());
+            primaryCheck = this.healthChecker().scheduleWithFixedDelay(primaryFailover::check, primaryCheckMillis, primaryCheckMillis, TimeUnit.MILLISECONDS);
+        }
+        //事物可能绑定在之前的写库上:多个写库间切换,或reload前的写库
+        Set<DataSource> primaryDataSources = Sets.newLinkedHashSet();
+        for (ReplicaNode node : Iterables.concat(primaries, old == null ? Collections.<ReplicaNode>emptyList() : old.primaries)) {
+            primaryDataSources.add(node.getDataSource());
+        }
+        return new Topology(primaries, readReplicas, readGroups, primaryFailover, primaryCheck, primaryDataSources);
+    }
+
+    /**
+     * 创建读库节点,oldNodes中相同的数据源复用原来的节点
+     */
+    private List<ReplicaNode> newReadReplicas(List<DataSource> readList, List<Integer> readWeights, List<ReplicaNode> oldNodes) {
+        List<ReplicaNode> readReplicas = Lists.newArrayList();
+        if (CollectionUtils.isEmpty(readList)) {
+            return readReplicas;
+        }
+        for (int i = 0; i < readList.size(); i++) {
+            int weight = readWeights != null && i < readWeights.size() ? readWeights.get(i) : 1;
+            ReplicaNode node = oldNodes == null ? null : find(oldNodes, readList.get(i), weight);
+            if (node == null) {
+                node = new ReplicaNode(readList.get(i), weight, jdbcSettings.getReplicaEjectFailures(), jdbcSettings.getReplicaEjectMillis(), jdbcSettings.getBulkheads(),
+                        this.newLimiter());
+            }
+            readReplicas.add(node);
+        }
+        return readReplicas;
+    }
+
+    /**
+     * 每个数据源一个自适应并发限制,未开启时返回null
+     */
+    private AdaptiveLimiter newLimiter() {
+        if (jdbcSettings.getConcurrencyLimitEnum() == null) {
+            return null;
+        }
+        return new AdaptiveLimiter(LimitAlgorithm.of(jdbcSettings.getConcurrencyLimitEnum()), jdbcSettings.getConcurrencyLimitInitial(),
+                jdbcSettings.getConcurrencyLimitMin(), jdbcSettings.getConcurrencyLimitMax());
+    }
+
+    private static ReplicaNode find(List<ReplicaNode> nodes, DataSource dataSource, int weight) {
+        for (ReplicaNode node : nodes) {
+            if (node.getDataSource() == dataSource && node.getWeight() == weight) {
+                return node;
             }
         }
+        return null;
+    }
+
+    /**
+     * 读库状态,用于监控
+     */
+    public List<ReplicaNode> getReadReplicas() {
+        return topology.readReplicas;
+    }
+
+    /**
+     * 负载类型到读库组的状态,用于监控
+     */
+    public Map<String, List<ReplicaNode>> getReadGroups() {
+        return topology.readGroups;
+    }
+
+    /**
+     * 写库状态,用于监控
+     */
+    public List<ReplicaNode> getPrimaries() {
+        return topology.primaries;
+    }
+
+    /**
+     * 每个分片数据源的路由器,按JdbcSettings.shards的顺序
+     */
+    public List<JdbcDatabaseRouter> getShardRouters() {
+        return shardRouters;
+    }
+
+    /**
+     * 写库切换状态,用于监控
+     *
+     * @return 只有一个写库或未开启健康检查时返回null
+     */
+    public PrimaryFailover getPrimaryFailover() {
+        return topology.primaryFailover;
     }
 
+    /**
+     * 当前写库
+     *
+     * @throws com.yangjb.zorm.exception.DaoException 正在切换写库
+     */
     @Override
     public Object writeRoute() {
-        return writeJdbcTemplate.get(0);
+        return topology.writeRoute(null);
+    }
+
+    /**
+     * 当前写库
+     *
+     * @param bulkhead - 舱壁分区名,为null时不限制
+     * @return - JdbcTemplate
+     * @throws com.yangjb.zorm.exception.DaoException 正在切换写库
+     * @throws com.yangjb.zorm.exception.BulkheadFullException 执行时分区已满
+     */
+    public JdbcTemplate writeRoute(String bulkhead) {
+        return topology.writeRoute(bulkhead);
     }
 
     @Override
     public Object readRoute() {
-        if (TransactionContext.isInTransaction() || CollectionUtils.isEmpty(readJdbcTemplate)) {
-            return this.writeRoute();
+        return this.readRoute(null, null, 0, null, null);
+    }
+
+    /**
+     * 按一致性级别选择读库
+     *
+     * @param consistencyLevel   - 一致性级别,为null时使用ConsistencyContext作用域的级别,不在作用域中使用默认级别
+     * @param tableName          - 读的表,为null时READ_YOUR_WRITES按当前线程写任意表判断
+     * @param maxStalenessMillis - BOUNDED_STALENESS允许的最大复制延迟毫秒数,0表示使用作用域或默认值
+     * @param bulkhead           - 舱壁分区名,为null时不限制
+     * @param workload           - 负载类型,为null或未配置读库组时使用默认读库
+     * @return - JdbcTemplate
+     */
+    public JdbcTemplate readRoute(ConsistencyLevelEnum consistencyLevel, String tableName, long maxStalenessMillis, String bulkhead, String workload) {
+        Topology topology = this.topology;
+        if (TransactionContext.isInTransaction() || !topology.hasReplicas()) {
+            return topology.writeRoute(bulkhead);
+        }
+
+        List<ReplicaNode> readGroup = topology.readGroup(workload);
+        switch (this.consistencyLevel(consistencyLevel)) {
+            case STRONG:
+                return topology.writeRoute(bulkhead);
+            case READ_YOUR_WRITES:
+                return this.isRecentlyWritten(tableName) ? topology.writeRoute(bulkhead) : this.eventualRoute(topology, readGroup).getJdbcTemplate(bulkhead);
+            case BOUNDED_STALENESS:
+                return this.boundedStalenessRoute(topology, readGroup, this.maxStalenessMillis(maxStalenessMillis)).getJdbcTemplate(bulkhead);
+            default:
+                return this.eventualRoute(topology, readGroup).getJdbcTemplate(bulkhead);
+        }
+    }
+
+    /**
+     * 对冲读:一致性级别为EVENTUAL且有两个以上可用读库时,第一个读库超过延迟百分位未返回则在另一个读库上再查询一次
+     * 负载类型的读库组有可用读库时只在组内对冲
+     * 未设置hedgeExecutor、处于事物中或需要读写库时按readRoute普通查询
+     *
+     * @param consistencyLevel - 一致性级别,为null时使用作用域或默认级别
+     * @param tableName        - 读的表
+     * @param bulkhead         - 舱壁分区名,为null时不限制
+     * @param workload         - 负载类型,为null时使用默认读库
+     * @param sql              - sql
+     * @param args             - 绑定值
+     * @param rse              - 结果映射
+     * @return - 先返回的结果
+     */
+    public <R> R hedgedQuery(ConsistencyLevelEnum consistencyLevel, String tableName, String bulkhead, String workload, String sql, Object[] args,
+                             ResultSetExtractor<R> rse) {
+        Topology topology = this.topology;
+        if (hedgedReader == null || TransactionContext.isInTransaction() || !topology.hasReplicas()
+                || !ConsistencyLevelEnum.EVENTUAL.equals(this.resolveConsistencyLevel(consistencyLevel, tableName))) {
+            return this.readRoute(consistencyLevel, tableName, 0, bulkhead, workload).query(sql, args, rse);
+        }
+
+        List<ReplicaNode> readGroup = topology.readGroup(workload);
+        List<ReplicaNode> candidates = readGroup == null ? Collections.emptyList() : availableReplicas(readGroup);
+        if (candidates.isEmpty()) {
+            candidates = availableReplicas(topology.readReplicas);
+        }
+        if (candidates.size() < 2) {
+            ReplicaNode node = candidates.isEmpty() ? topology.writePrimary() : candidates.get(0);
+            return node.getJdbcTemplate(bulkhead).query(sql, args, rse);
+        }
+        ReplicaNode first = loadBalancer.select(candidates);
+        List<ReplicaNode> others = Lists.newArrayList(candidates);
+        others.remove(first);
+        return hedgedReader.query(first, loadBalancer.select(others), bulkhead, sql, args, rse);
+    }
+
+    /**
+     * 对冲读状态,用于监控
+     *
+     * @return 未设置hedgeExecutor时返回null
+     */
+    public HedgedReader getHedgedReader() {
+        return hedgedReader;
+    }
+
+    /**
+     * 实际使用的一致性级别:参数>作用域>默认
+     */
+    ConsistencyLevelEnum consistencyLevel(ConsistencyLevelEnum consistencyLevel) {
+        if (consistencyLevel != null) {
+            return consistencyLevel;
+        }
+        ConsistencyLevelEnum scopeLevel = ConsistencyContext.getScopeLevel();
+        if (scopeLevel != null) {
+            return scopeLevel;
+        }
+        return jdbcSettings.getConsistencyLevel() == null ? ConsistencyLevelEnum.EVENTUAL : jdbcSettings.getConsistencyLevel();
+    }
+
+    /**
+     * 在调用线程确定实际的一致性级别,READ_YOUR_WRITES按当前线程的写记录转换为STRONG或EVENTUAL
+     * 用于在其他线程执行的查询
+     */
+    ConsistencyLevelEnum resolveConsistencyLevel(ConsistencyLevelEnum consistencyLevel, String tableName) {
+        ConsistencyLevelEnum level = this.consistencyLevel(consistencyLevel);
+        if (!ConsistencyLevelEnum.READ_YOUR_WRITES.equals(level)) {
+            return level;
+        }
+        return this.isRecentlyWritten(tableName) ? ConsistencyLevelEnum.STRONG : ConsistencyLevelEnum.EVENTUAL;
+    }
+
+    /**
+     * 当前线程是否在readYourWritesMillis内写过该表
+     */
+    private boolean isRecentlyWritten(String tableName) {
+        long lastWriteMillis = ConsistencyContext.getLastWriteMillis(tableName);
+        return lastWriteMillis > 0 && System.currentTimeMillis() - lastWriteMillis < jdbcSettings.getReadYourWritesMillis();
+    }
+
+    long maxStalenessMillis(long maxStalenessMillis) {
+        if (maxStalenessMillis > 0) {
+            return maxStalenessMillis;
+        }
+        long scopeMaxStalenessMillis = ConsistencyContext.getScopeMaxStalenessMillis();
+        return scopeMaxStalenessMillis > 0 ? scopeMaxStalenessMillis : jdbcSettings.getMaxStalenessMillis();
+    }
+
+    /**
+     * 依次从负载类型的读库组、默认读库中选择可用的读库,都不可用时读写库
+     */
+    private ReplicaNode eventualRoute(Topology topology, List<ReplicaNode> readGroup) {
+        List<ReplicaNode> candidates = readGroup == null ? Collections.emptyList() : candidates(readGroup);
+        if (candidates.isEmpty()) {
+            candidates = candidates(topology.readReplicas);
+        }
+        if (candidates.isEmpty()) {//读库全部摘除
+            return topology.writePrimary();
+        }
+        return loadBalancer.select(candidates);
+    }
+
+    /**
+     * 没有读库被摘除时直接返回readReplicas,避免复制列表
+     */
+    private static List<ReplicaNode> candidates(List<ReplicaNode> readReplicas) {
+        for (int i = 0; i < readReplicas.size(); i++) {
+            if (readReplicas.get(i).isEjected()) {
+                return availableReplicas(readReplicas);
+            }
+        }
+        return readReplicas;
+    }
+
+    /**
+     * 只选择复制延迟已知且不超过maxStalenessMillis的读库,优先负载类型的读库组,没有时读写库
+     */
+    private ReplicaNode boundedStalenessRoute(Topology topology, List<ReplicaNode> readGroup, long maxStalenessMillis) {
+        List<ReplicaNode> candidates = readGroup == null ? Collections.emptyList() : this.freshReplicas(readGroup, maxStalenessMillis);
+        if (candidates.isEmpty()) {
+            candidates = this.freshReplicas(topology.readReplicas, maxStalenessMillis);
+        }
+        if (candidates.isEmpty()) {
+            return topology.writePrimary();
+        }
+        return loadBalancer.select(candidates);
+    }
+
+    /**
+     * 未被摘除且复制延迟已知、不超过maxStalenessMillis的读库
+     */
+    private List<ReplicaNode> freshReplicas(List<ReplicaNode> readReplicas, long maxStalenessMillis) {
+        long now = System.currentTimeMillis();
+        long expireMillis = jdbcSettings.getReplicaLagCheckMillis() * LAG_EXPIRE_CHECKS;
+        List<ReplicaNode> candidates = Lists.newArrayListWithCapacity(readReplicas.size());
+        for (ReplicaNode node : readReplicas) {
+            long lagMillis = node.getLagMillis();
+            if (!node.isEjected() && lagMillis >= 0 && lagMillis <= maxStalenessMillis && now - node.getLagMeasuredAt() <= expireMillis) {
+                candidates.add(node);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * 未被摘除的读库;有读库摘除到期且本次请求成为探测请求时只返回该读库
+     */
+    private static List<ReplicaNode> availableReplicas(List<ReplicaNode> readReplicas) {
+        long now = System.currentTimeMillis();
+        List<ReplicaNode> candidates = Lists.newArrayListWithCapacity(readReplicas.size());
+        for (ReplicaNode node : readReplicas) {
+            if (!node.isEjected()) {
+                candidates.add(node);
+            } else if (node.tryProbe(now)) {
+                return Lists.newArrayList(node);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * 写库校验sql
+     */
+    private String validationSql() {
+        if (jdbcSettings.getPrimaryValidationSql() != null) {
+            return jdbcSettings.getPrimaryValidationSql();
+        }
+        return DialectEnum.ORACLE.equals(jdbcSettings.getDialectEnum()) ? ORACLE_VALIDATION_SQL : DEFAULT_VALIDATION_SQL;
+    }
+
+    /**
+     * 测量复制延迟的sql,无法测量时返回null
+     */
+    private String lagSql() {
+        if (jdbcSettings.getReplicaLagSql() != null) {
+            return jdbcSettings.getReplicaLagSql();
+        }
+        return DialectEnum.MYSQL.equals(jdbcSettings.getDialectEnum()) ? MYSQL_LAG_SQL : null;
+    }
+
+    /**
+     * 测量每个读库(包括读库组)的复制延迟,测量失败或复制中断时延迟未知
+     */
+    private void measureLag() {
+        String lagSql = this.lagSql();
+        Topology topology = this.topology;
+        for (ReplicaNode node : Iterables.concat(topology.readReplicas, Iterables.concat(topology.readGroups.values()))) {
+            try {
+                List<Long> lags;
+                if (jdbcSettings.getReplicaLagSql() != null) {
+                    lags = node.getHealthJdbcTemplate().queryForList(lagSql, Long.class);
+                } else {
+                    lags = node.getHealthJdbcTemplate().query(lagSql, (rs, rowNum) -> {
+                        long seconds = rs.getLong(MYSQL_LAG_COLUMN);
+                        return rs.wasNull() ? null : TimeUnit.SECONDS.toMillis(seconds);
+                    });
+                }
+                Long lagMillis = lags.isEmpty() ? null : lags.get(0);
+                node.setLagMillis(lagMillis == null ? -1 : lagMillis);
+            } catch (RuntimeException e) {
+                node.setLagMillis(-1);
+                log.warn("measure replica lag failed: " + node, e);
+            }
+        }
+    }
+
+    /**
+     * 不可变的读写库快照
+     */
+    private static final class Topology {
+        private final List<ReplicaNode> primaries;
+        private final List<ReplicaNode> readReplicas;
+        //负载类型到非空的读库组
+        private final Map<String, List<ReplicaNode>> readGroups;
+        private final PrimaryFailover primaryFailover;
+        private final ScheduledFuture<?> primaryCheck;
+        //当前和上一个拓扑的写库数据源,事物绑定在其中非当前写库上时说明写库已切换
+        private final Set<DataSource> primaryDataSources;
+
+        private Topology(List<ReplicaNode> primaries, List<ReplicaNode> readReplicas, Map<String, List<ReplicaNode>> readGroups, PrimaryFailover primaryFailover,
+                         ScheduledFuture<?> primaryCheck, Set<DataSource> primaryDataSources) {
+            this.primaries = Collections.unmodifiableList(primaries);
+            this.readReplicas = Collections.unmodifiableList(readReplicas);
+            this.readGroups = Collections.unmodifiableMap(readGroups);
+            this.primaryFailover = primaryFailover;
+            this.primaryCheck = primaryCheck;
+            this.primaryDataSources = primaryDataSources;
+        }
+
+        private boolean hasReplicas() {
+            return !readReplicas.isEmpty() || !readGroups.isEmpty();
+        }
+
+        /**
+         * 负载类型的读库组,未指定或未配置时返回null
+         */
+        private List<ReplicaNode> readGroup(String workload) {
+            return workload == null ? null : readGroups.get(workload);
+        }
+
+        /**
+         * 写库、读库和读库组的全部节点,同一个节点可能出现多次
+         */
+        private Iterable<ReplicaNode> allNodes() {
+            return Iterables.concat(primaries, readReplicas, Iterables.concat(readGroups.values()));
+        }
+
+        /**
+         * 读库组的数据源,reload未指定读库组时保留
+         */
+        private Map<String, List<DataSource>> readGroupDataSources() {
+            Map<String, List<DataSource>> dataSources = Maps.newHashMap();
+            for (Map.Entry<String, List<ReplicaNode>> entry : readGroups.entrySet()) {
+                List<DataSource> group = Lists.newArrayListWithCapacity(entry.getValue().size());
+                for (ReplicaNode node : entry.getValue()) {
+                    group.add(node.getDataSource());
+                }
+                dataSources.put(entry.getKey(), group);
+            }
+            return dataSources;
+        }
+
+        /**
+         * 当前写库,正在切换时抛出DaoException
+         */
+        private ReplicaNode writePrimary() {
+            return primaries.get(primaryFailover == null ? 0 : primaryFailover.route());
+        }
+
+        /**
+         * 当前写库的JdbcTemplate
+         * 事物绑定在之前的写库上时抛出DaoException,避免在新写库上以自动提交写入而脱离事物
+         * 绑定在其他数据库上的事物或JTA事物不受影响
+         */
+        private JdbcTemplate writeRoute(String bulkhead) {
+            ReplicaNode primary = this.writePrimary();
+            if (TransactionSynchronizationManager.isActualTransactionActive() && !TransactionSynchronizationManager.hasResource(primary.getDataSource())) {
+                for (DataSource dataSource : primaryDataSources) {
+                    if (dataSource != primary.getDataSource() && TransactionSynchronizationManager.hasResource(dataSource)) {
+                        throw new DaoException("写库已切换,当前事物不在新的写库上,请重试事物");
+                    }
+                }
+            }
+            return primary.getJdbcTemplate(bulkhead);
+        }
+
+        private ReplicaNode activePrimary() {
+            if (primaries.isEmpty()) {
+                return null;
+            }
+            return primaries.get(primaryFailover == null ? 0 : primaryFailover.getActiveIndex());
         }
-        int randomPos = ThreadLocalRandom.current().nextInt(readJdbcTemplate.size());
-        return readJdbcTemplate.get(randomPos);
     }
 }
@@ -6,7 +6,11 @@ import com.yangjb.zorm.dao.DatabaseRouter;
 import com.yangjb.zorm.dao.DatabaseRouterFactory;
 import com.yangjb.zorm.exception.DaoException;
 
-import java.util.HashMap;
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @Author zhoutao
@@ -14,7 +18,13 @@ import java.util.HashMap;
  */
 public class JdbcDatabaseRouterFactory implements DatabaseRouterFactory {
     static final JdbcDatabaseRouterFactory INSTANCE = new JdbcDatabaseRouterFactory();
-    private HashMap<JdbcSettings, JdbcDatabaseRouter> jdbcTemplateRouterMap = Maps.newHashMap();
+    //运行中无锁读取
+    private final ConcurrentMap<JdbcSettings, JdbcDatabaseRouter> jdbcTemplateRouterMap = Maps.newConcurrentMap();
+    private final ConcurrentMap<JdbcSettings, TenantRouter> tenantRouterMap = Maps.newConcurrentMap();
+
+    public static JdbcDatabaseRouterFactory getInstance() {
+        return INSTANCE;
+    }
 
     /**
      * JdbcTemplateRouter的获取发生在项目运行中
@@ -27,7 +37,51 @@ public class JdbcDatabaseRouterFactory implements DatabaseRouterFactory {
     }
 
     /**
-     * JdbcTemplateRouter的创建工作发生在项目启动过程
+     * settings对应的多租户路由器
+     *
+     * @param jdbcSettings - 创建路由器时的settings
+     * @return 未设置tenantProvider时返回null
+     */
+    public TenantRouter getTenantRouter(JdbcSettings jdbcSettings) {
+        return tenantRouterMap.get(jdbcSettings);
+    }
+
+    /**
+     * 运行中替换settings对应路由器的读写库
+     *
+     * @param jdbcSettings    - 创建路由器时的settings
+     * @param writeDataSource - 写库,不能为空
+     * @param readDataSource  - 读库,可以为空
+     * @param readWeights     - 读库权重,可以为null
+     * @return - 排空完成后返回被移除的数据源,由调用方关闭
+     * @see JdbcDatabaseRouter#reload
+     */
+    public CompletableFuture<List<DataSource>> reload(JdbcSettings jdbcSettings, List<DataSource> writeDataSource, List<DataSource> readDataSource, List<Integer> readWeights) {
+        return this.reload(jdbcSettings, writeDataSource, readDataSource, readWeights, null);
+    }
+
+    /**
+     * 运行中替换settings对应路由器的读写库和读库组
+     *
+     * @param jdbcSettings    - 创建路由器时的settings
+     * @param writeDataSource - 写库,不能为空
+     * @param readDataSource  - 读库,可以为空
+     * @param readWeights     - 读库权重,可以为null
+     * @param readGroups      - 负载类型到读库组,为null时保留当前的读库组
+     * @return - 排空完成后返回被移除的数据源,由调用方关闭
+     * @see JdbcDatabaseRouter#reload
+     */
+    public CompletableFuture<List<DataSource>> reload(JdbcSettings jdbcSettings, List<DataSource> writeDataSource, List<DataSource> readDataSource, List<Integer> readWeights,
+                                                      Map<String, List<DataSource>> readGroups) {
+        JdbcDatabaseRouter router = jdbcTemplateRouterMap.get(jdbcSettings);
+        if (router == null) {
+            throw new DaoException("JdbcTemplateRouter[" + jdbcSettings + "]不存在");
+        }
+        return router.reload(writeDataSource, readDataSource, readWeights, readGroups);
+    }
+
+    /**
+     * JdbcTemplateRouter的创建工作发生在项目启动过程,设置了tenantProvider时同时创建多租户路由器
      *
      * @param daoSettings - daoSettings
      */
@@ -38,7 +92,11 @@ public class JdbcDatabaseRouterFactory implements DatabaseRouterFactory {
         }
         JdbcSettings jdbcSettings = (JdbcSettings) daoSettings;
         try {
-            jdbcTemplateRouterMap.put(jdbcSettings, new JdbcDatabaseRouter(jdbcSettings));
+            JdbcDatabaseRouter router = new JdbcDatabaseRouter(jdbcSettings);
+            if (jdbcSettings.getTenantProvider() != null) {
+                tenantRouterMap.put(jdbcSettings, new TenantRouter(jdbcSettings, router));
+            }
+            jdbcTemplateRouterMap.put(jdbcSettings, router);
         } catch (RuntimeException e) {
             throw new DaoException("无法生产JdbcTemplateRouter[" + jdbcSettings + "]", e);
         }
@@ -1,24 +1,22 @@
 package com.yangjb.zorm.dao.jdbc;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.yangjb.zorm.annotation.Table;
 import com.yangjb.zorm.constant.DBConstant;
-import com.yangjb.zorm.dao.DaoHelper;
+import com.yangjb.zorm.dao.PropertyAccessor;
 import com.yangjb.zorm.dao.jdbc.enums.DialectEnum;
 import com.yangjb.zorm.entity.LongIdEntity;
 import com.yangjb.zorm.exception.DaoException;
 import com.yangjb.zorm.query.*;
-import com.yangjb.zorm.utils.BeanUtils;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.jdbc.support.JdbcUtils;
 
-import java.lang.reflect.Field;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.*;
 
 import static com.yangjb.zorm.constant.MixedConstant.*;
@@ -65,9 +63,8 @@ public final class JdbcHelper {
                     sb.append(column).append(COMMA);
                 }
             } else {
-                for (String column : propertyToColumnMapper.values()) {
-                    sb.append(column).append(COMMA);
-                }
+                //查询全部字段使用预先拼装好的sql
+                return entityMapper.getSelectAllSql();
             }
         }
 
@@ -76,12 +73,16 @@ public final class JdbcHelper {
         return sb.toString();
     }
 
-    static String DELETE(Class<?> entityClass) {
-        return "DELETE " + FROM(entityClass) + " WHERE id = ?";
+    static String DELETE(EntityMapper<?> entityMapper) {
+        return entityMapper.getDeleteByIdSql();
     }
 
-    static String FROM(Class<?> entityClass) {
-        return "FROM " + getTableName(entityClass) + BLANK;
+    static String WHERE_ID() {
+        return "WHERE id = ? ";
+    }
+
+    static String FROM(EntityMapper<?> entityMapper) {
+        return entityMapper.getFromSql();
     }
 
     static String GROUP_BY(List<GroupBy> groupByList, EntityMapper entityMapper) {
@@ -98,14 +99,22 @@ public final class JdbcHelper {
         return sb.toString();
     }
 
-    static String ORDER_BY(List<OrderBy> orderByList, EntityMapper entityMapper) {
+    /**
+     * oracle显式指定null的位置(和默认一致),跨分片归并的比较器按DialectEnum.nullsFirst处理null;mysql不支持NULLS FIRST/LAST,null视为最小值
+     */
+    static String ORDER_BY(List<OrderBy> orderByList, EntityMapper entityMapper, DialectEnum dialectEnum) {
         if (CollectionUtils.isEmpty(orderByList)) {
             return EMPTY;
         }
 
         StringBuilder sb = new StringBuilder("ORDER BY ");
         for (OrderBy orderBy : orderByList) {
-            sb.append(entityMapper.getPropertyToColumnMapper().get(orderBy.getKey())).append(BLANK).append(orderBy.getDirection()).append(COMMA);
+            sb.append(entityMapper.getPropertyToColumnMapper().get(orderBy.getKey())).append(BLANK).append(orderBy.getDirection());
+            if (DialectEnum.ORACLE.equals(dialectEnum)) {
+                boolean asc = !OrderBy.Direction.DESC.getDirection().equalsIgnoreCase(orderBy.getDirection());
+                sb.append(asc == dialectEnum.nullsFirst() ? " NULLS FIRST" : " NULLS LAST");
+            }
+            sb.append(COMMA);
         }
         sb.deleteCharAt(sb.length() - INT_1);//去掉最后一个,
         sb.append(BLANK);
@@ -136,8 +145,8 @@ public final class JdbcHelper {
         return newSql.toString();
     }
 
-    static String UPDATE(Class<?> entityClass) {
-        return "UPDATE " + getTableName(entityClass) + BLANK;
+    static String UPDATE(EntityMapper<?> entityMapper) {
+        return entityMapper.getUpdateSql();
     }
 
     static String SET(Update update, List<Object> valueList, EntityMapper<?> entityMapper) {
@@ -158,27 +167,6 @@ public final class JdbcHelper {
         return sb.toString();
     }
 
-    static <T> T map2Entity(Map<String, Object> map, EntityMapper<T> entityMapper, Class<T> entityClass) {
-        Map<String, String> columnToPropertyMapper = entityMapper.getColumnToPropertyMapper();
-
-        try {
-            HashMap<String, Object> propertyMap = Maps.newHashMap();
-            for (Map.Entry<String, Object> entry : map.entrySet()) {
-                String k = entry.getKey();
-                Object v = entry.getValue();
-                //如果select出来的字段有而entity没有对应的属性，需要忽略该字段
-                String propertyName = columnToPropertyMapper.get(k.toLowerCase());
-                if (propertyName == null) {
-                    continue;
-                }
-                propertyMap.put(propertyName, v);
-            }
-            return BeanUtils.mapToBean(propertyMap, entityClass);
-        } catch (Exception e) {
-            throw new DaoException("map2Entity无法将数据库中行记录[" + map + "]转换成Entity对象[" + entityClass.getSimpleName() + "]", e);
-        }
-    }
-
     /**
      * 根据criteria拼装sql where
      *
@@ -188,6 +176,20 @@ public final class JdbcHelper {
      * @return where sql
      */
     static String WHERE(Criteria criteria, List<Object> valueList, EntityMapper<?> entityMapper) {
+        return WHERE(criteria, valueList, entityMapper, INT_0);
+    }
+
+    /**
+     * 根据criteria拼装sql where
+     * inListBucketLimit大于0时IN列表按2的幂补齐(重复最后一个值),但不超过inListBucketLimit,使不同长度的IN生成的sql种类有限
+     *
+     * @param criteria          - 条件对象
+     * @param valueList         - 值列表
+     * @param entityMapper      - entityMapper
+     * @param inListBucketLimit - IN列表补齐的上限,0表示不补齐
+     * @return where sql
+     */
+    static String WHERE(Criteria criteria, List<Object> valueList, EntityMapper<?> entityMapper, int inListBucketLimit) {
         if (criteria == null) {
             return EMPTY;
         }
@@ -206,9 +208,16 @@ public final class JdbcHelper {
             } else if (CriteriaOperators.isMultiValueOperator(c.getOperator())) {
                 whereSB.append(" AND ").append(propertyToColumnMapper.get(c.getKey())).append(BLANK).append(c.getOperator()).append(" (");
                 Collection collection = (Collection) c.getValue();
+                Object last = null;
                 for (Object item : collection) {
                     whereSB.append(QUESTION).append(COMMA);
                     valueList.add(item);
+                    last = item;
+                }
+                int padding = inListBucketSize(collection.size(), inListBucketLimit) - collection.size();
+                for (int i = INT_0; i < padding; i++) {
+                    whereSB.append(QUESTION).append(COMMA);
+                    valueList.add(last);
                 }
                 whereSB.deleteCharAt(whereSB.length() - INT_1);
                 whereSB.append(")");
@@ -218,6 +227,78 @@ public final class JdbcHelper {
         return whereSql;
     }
 
+    /**
+     * IN列表补齐后的长度:不小于size的最小2的幂,超过limit时取limit和size中较大的
+     *
+     * @param size  - IN列表实际长度
+     * @param limit - 补齐上限,0表示不补齐
+     * @return - 补齐后的长度
+     */
+    static int inListBucketSize(int size, int limit) {
+        if (limit <= INT_0 || size <= INT_1) {
+            return size;
+        }
+        int bucket = Integer.highestOneBit(size - INT_1) << INT_1;
+        if (bucket <= INT_0 || bucket > limit) {
+            return Math.max(size, limit);
+        }
+        return bucket;
+    }
+
+    /**
+     * 根据上一页最后一行的order by字段值拼装游标分页条件
+     * mysql且order by方向一致时使用(k1,k2) > (?,?),否则展开为(k1 > ?) OR (k1 = ? AND k2 > ?)
+     *
+     * @param orderBys     - 游标分页的order by
+     * @param seekValues   - 上一页最后一行的order by字段值
+     * @param valueList    - 值列表
+     * @param entityMapper - entityMapper
+     * @param dialectEnum  - 数据库类型
+     * @param hasWhere     - 前面是否已经有where条件
+     * @return seek sql
+     */
+    static String SEEK(List<OrderBy> orderBys, List<Object> seekValues, List<Object> valueList, EntityMapper<?> entityMapper, DialectEnum dialectEnum, boolean hasWhere) {
+        Map<String, String> propertyToColumnMapper = entityMapper.getPropertyToColumnMapper();
+
+        boolean sameDirection = true;
+        for (OrderBy orderBy : orderBys) {
+            sameDirection = sameDirection && orderBy.getDirection().equals(orderBys.get(INT_0).getDirection());
+        }
+
+        StringBuilder sb = new StringBuilder(hasWhere ? "AND (" : "WHERE (");
+        if (sameDirection && DialectEnum.MYSQL.equals(dialectEnum)) {
+            StringBuilder columns = new StringBuilder();
+            StringBuilder placeholders = new StringBuilder();
+            for (OrderBy orderBy : orderBys) {
+                columns.append(propertyToColumnMapper.get(orderBy.getKey())).append(COMMA);
+                placeholders.append(QUESTION).append(COMMA);
+            }
+            columns.deleteCharAt(columns.length() - INT_1);
+            placeholders.deleteCharAt(placeholders.length() - INT_1);
+            sb.append("(").append(columns).append(") ").append(seekOperator(orderBys.get(INT_0))).append(" (").append(placeholders).append(")");
+            valueList.addAll(seekValues);
+        } else {
+            for (int i = INT_0; i < orderBys.size(); i++) {
+                if (i > INT_0) {
+                    sb.append(" OR ");
+                }
+                sb.append("(");
+                for (int j = INT_0; j < i; j++) {
+                    sb.append(propertyToColumnMapper.get(orderBys.get(j).getKey())).append(" = ? AND ");
+                    valueList.add(seekValues.get(j));
+                }
+                sb.append(propertyToColumnMapper.get(orderBys.get(i).getKey())).append(BLANK).append(seekOperator(orderBys.get(i))).append(" ?)");
+                valueList.add(seekValues.get(i));
+            }
+        }
+        sb.append(") ");
+        return sb.toString();
+    }
+
+    private static String seekOperator(OrderBy orderBy) {
+        return OrderBy.Direction.DESC.getDirection().equals(orderBy.getDirection()) ? LESS : GREATER;
+    }
+
     /**
      * 生成oracle id
      *
@@ -234,82 +315,179 @@ public final class JdbcHelper {
             rs.next();
             return rs.getLong(INT_1);
         } catch (SQLException e) {
-            throw new DaoException("无法获取oracle的sequence:" + sequence);
+            throw new DaoException("无法获取oracle的sequence:" + sequence, e);
         } finally {
             JdbcUtils.closeResultSet(rs);
             JdbcUtils.closeStatement(pstmt);
         }
     }
 
-    static String INSERT(LongIdEntity longIdEntity, List<Object> valueList, EntityMapper<?> entityMapper, Class<?> entityClass, DialectEnum dialectEnum, Connection connection) {
+    static String INSERT(LongIdEntity longIdEntity, List<Object> valueList, EntityMapper<?> entityMapper, DialectEnum dialectEnum, Connection connection) {
+        //IdEntity字段
+        Long id = longIdEntity.getId() == null ? Long.valueOf(INT_0) : longIdEntity.getId();
+        if (id.longValue() <= LONG_0 && DialectEnum.ORACLE.equals(dialectEnum)) {
+            longIdEntity.setId(genOracleId(getOracleSequenceName(entityMapper), connection));
+        }
+
+        boolean withId = longIdEntity.getId() != null && longIdEntity.getId().longValue() > LONG_0;
+        valueList.addAll(Arrays.asList(INSERT_VALUES(longIdEntity, withId, entityMapper)));
+        return INSERT(withId, entityMapper);
+    }
+
+    /**
+     * insert语句,同一个entity的语句只和是否带id有关,由EntityMapper预先拼装
+     *
+     * @param withId       - 是否插入id字段
+     * @param entityMapper - entityMapper
+     * @return - insert sql
+     */
+    static String INSERT(boolean withId, EntityMapper<?> entityMapper) {
+        return withId ? entityMapper.getInsertWithIdSql() : entityMapper.getInsertSql();
+    }
+
+    /**
+     * 拼装查询全部字段的select,只在创建EntityMapper时调用
+     *
+     * @param entityMapper - entityMapper
+     * @return - select sql
+     */
+    static String buildSelectAll(EntityMapper<?> entityMapper) {
+        StringBuilder sb = new StringBuilder("SELECT ");
+        for (String column : entityMapper.getPropertyToColumnMapper().values()) {
+            sb.append(column).append(COMMA);
+        }
+        sb.deleteCharAt(sb.length() - INT_1);//去掉最后一个,
+        sb.append(BLANK);
+        return sb.toString();
+    }
+
+    /**
+     * 拼装insert语句,只在创建EntityMapper时调用
+     *
+     * @param withId       - 是否插入id字段
+     * @param entityMapper - entityMapper
+     * @return - insert sql
+     */
+    static String buildInsert(boolean withId, EntityMapper<?> entityMapper) {
         Map<String, String> propertyToColumnMapper = entityMapper.getPropertyToColumnMapper();
         Set<String> notNeedTransientPropertySet = entityMapper.getNotNeedTransientPropertySet();
 
         StringBuilder sb = new StringBuilder(" INSERT INTO ");
 
         //组装表名
-        Class beanClass = longIdEntity.getClass();
-        sb.append(getTableName(entityClass)).append(" (");
+        sb.append(entityMapper.getTableName()).append(" (");
 
         //组装字段
-        List<Field> fieldList = Lists.newArrayList();
-        List<String> pList = Lists.newArrayList();
-
-        //IdEntity字段
-        Long id = longIdEntity.getId() == null ? Long.valueOf(INT_0) : longIdEntity.getId();
-        if (id.longValue() > LONG_0) {
-            pList.add(QUESTION);
+        int count = INT_0;
+        if (withId) {
             sb.append(propertyToColumnMapper.get(DBConstant.PK_NAME)).append(COMMA);
-            try {
-                valueList.add(DaoHelper.getColumnValue(LongIdEntity.class.getDeclaredField(DBConstant.PK_NAME), longIdEntity));
-            } catch (NoSuchFieldException e) {
-                throw new DaoException("insert error", e);
-            }
-        } else {
-            if (DialectEnum.ORACLE.equals(dialectEnum)) {
-                sb.append(propertyToColumnMapper.get(DBConstant.PK_NAME)).append(COMMA);
-                if (StringUtils.isNotBlank(getSequenceName(entityClass))) {
-                    pList.add(QUESTION);
-                    Long oracleId = genOracleId(getSequenceName(entityClass), connection);
-                    valueList.add(oracleId);
-                    longIdEntity.setId(oracleId);
-                } else {
-                    throw new DaoException("连接ORACLE,实体Table注解必须设置sequence");
-                }
-            }
+            count++;
         }
-
-
-        //本类字段
-        Field[] fields = beanClass.getDeclaredFields();
-        fieldList.addAll(Arrays.asList(fields));
-
-
-        for (Field field : fieldList) {
-            if (DaoHelper.isFinalOrStatic(field)) {
-                continue;
-            }
+        for (PropertyAccessor accessor : entityMapper.getEntityAccessor().getDeclaredPropertyAccessors()) {
             //过滤掉不需要持久化的变量
-            String propertyName = field.getName();
+            String propertyName = accessor.getName();
             if (notNeedTransientPropertySet.contains(propertyName)) {
                 continue;
             }
-
             sb.append(propertyToColumnMapper.get(propertyName)).append(COMMA);
-            pList.add(QUESTION);
-            valueList.add(DaoHelper.getColumnValue(field, longIdEntity));
+            count++;
         }
         sb.deleteCharAt(sb.length() - INT_1).append(")");
 
         //组装值
         sb.append(" VALUES (");
-        for (String p : pList) {
-            sb.append(p).append(COMMA);
+        for (int i = INT_0; i < count; i++) {
+            sb.append(QUESTION).append(COMMA);
         }
         sb.deleteCharAt(sb.length() - INT_1).append(") ");
         return sb.toString();
     }
 
+    /**
+     * 按INSERT(withId, ...)的字段顺序取出entity的值
+     *
+     * @param longIdEntity - entity
+     * @param withId       - 是否包含id
+     * @param entityMapper - entityMapper
+     * @return - 值数组
+     */
+    static Object[] INSERT_VALUES(LongIdEntity longIdEntity, boolean withId, EntityMapper<?> entityMapper) {
+        Set<String> notNeedTransientPropertySet = entityMapper.getNotNeedTransientPropertySet();
+        List<PropertyAccessor> accessors = entityMapper.getEntityAccessor().getDeclaredPropertyAccessors();
+
+        List<Object> valueList = Lists.newArrayListWithCapacity(accessors.size() + INT_1);
+        if (withId) {
+            valueList.add(longIdEntity.getId());
+        }
+        for (PropertyAccessor accessor : accessors) {
+            if (notNeedTransientPropertySet.contains(accessor.getName())) {
+                continue;
+            }
+            valueList.add(accessor.get(longIdEntity));
+        }
+        return valueList.toArray();
+    }
+
+    /**
+     * 批量生成oracle id,一次查询取出size个sequence值
+     *
+     * @param sequence   - sequence名字
+     * @param size       - 个数
+     * @param connection - 链接
+     * @return - id列表
+     */
+    static List<Long> genOracleIds(String sequence, int size, Connection connection) {
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            pstmt = connection.prepareStatement("SELECT " + sequence + ".NEXTVAL AS ID FROM DUAL CONNECT BY LEVEL <= ?");
+            pstmt.setInt(INT_1, size);
+            rs = pstmt.executeQuery();
+            List<Long> ids = Lists.newArrayListWithCapacity(size);
+            while (rs.next()) {
+                ids.add(rs.getLong(INT_1));
+            }
+            return ids;
+        } catch (SQLException e) {
+            throw new DaoException("无法获取oracle的sequence:" + sequence, e);
+        } finally {
+            JdbcUtils.closeResultSet(rs);
+            JdbcUtils.closeStatement(pstmt);
+        }
+    }
+
+    /**
+     * 获取oracle插入使用的sequence,未设置时抛出异常
+     *
+     * @param entityMapper - entityMapper
+     * @return - sequence名字
+     */
+    static String getOracleSequenceName(EntityMapper<?> entityMapper) {
+        String sequence = entityMapper.getSequenceName();
+        if (StringUtils.isBlank(sequence)) {
+            throw new DaoException("连接ORACLE,实体Table注解必须设置sequence");
+        }
+        return sequence;
+    }
+
+    /**
+     * 汇总executeBatch返回的影响行数,驱动返回SUCCESS_NO_INFO时按1行计算
+     *
+     * @param counts - executeBatch返回值
+     * @return - 影响行数
+     */
+    static int sumBatchCount(int[] counts) {
+        int n = INT_0;
+        for (int count : counts) {
+            if (count == Statement.SUCCESS_NO_INFO) {
+                n += INT_1;
+            } else if (count > INT_0) {
+                n += count;
+            }
+        }
+        return n;
+    }
+
     /**
      * 根据entity的class获取对应的表名
      *
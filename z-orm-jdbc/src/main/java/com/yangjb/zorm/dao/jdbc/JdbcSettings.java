@@ -1,11 +1,17 @@
 package com.yangjb.zorm.dao.jdbc;
 
 import com.yangjb.zorm.dao.DaoSettings;
+import com.yangjb.zorm.dao.jdbc.enums.ConcurrencyLimitEnum;
 import com.yangjb.zorm.dao.jdbc.enums.DialectEnum;
+import com.yangjb.zorm.dao.jdbc.enums.LoadBalanceEnum;
+import com.yangjb.zorm.dao.jdbc.enums.ShardingStrategyEnum;
+import com.yangjb.zorm.query.ConsistencyLevelEnum;
 import lombok.Data;
 
 import javax.sql.DataSource;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 /**
  * jdbc 通用client级别设置对象
@@ -16,6 +22,197 @@ import java.util.List;
 @Data
 public class JdbcSettings implements DaoSettings {
     private DialectEnum dialectEnum;
+    /**
+     * 启动时的写库和读库,运行中通过JdbcDatabaseRouter.reload变更,不要直接修改
+     */
     private List<DataSource> writeDataSource;
     private List<DataSource> readDataSource;
+    /**
+     * 批量操作时每次executeBatch提交的最大行数
+     */
+    private int batchSize = 500;
+    /**
+     * 游标查询的fetchSize,0表示按数据库默认:mysql为Integer.MIN_VALUE逐行流式读取,其他为1000
+     * mysql逐行流式读取的游标不能在事物中使用
+     */
+    private int streamFetchSize;
+    /**
+     * findListByIds/updateByIds中IN列表每段的最大id数,oracle不能超过1000
+     */
+    private int inChunkSize = 1000;
+    /**
+     * findListByIds分段后并行查询使用的线程池,为null或处于事物中时顺序查询
+     */
+    private ExecutorService inChunkExecutor;
+    /**
+     * 是否将IN列表按2的幂补齐(重复最后一个值),减少不同长度IN列表生成的sql种类
+     */
+    private boolean inListPadding;
+    /**
+     * 每个dao缓存的sql形状(相同结构的query生成的sql)最大个数,0表示不缓存
+     */
+    private int sqlShapeCacheSize = 256;
+    /**
+     * 异步dao的线程数,0表示使用写库连接池的最大连接数(支持druid、dbcp、hikari),无法识别时为8
+     */
+    private int asyncThreads;
+    /**
+     * 异步dao线程池的等待队列大小,队列满时拒绝
+     */
+    private int asyncQueueSize = 1000;
+    /**
+     * 读库负载均衡策略,默认随机
+     */
+    private LoadBalanceEnum loadBalanceEnum = LoadBalanceEnum.RANDOM;
+    /**
+     * 自定义读库负载均衡策略,设置后忽略loadBalanceEnum
+     */
+    private LoadBalancer loadBalancer;
+    /**
+     * 读库权重,和readDataSource一一对应,未设置时为1,用于WEIGHTED_ROUND_ROBIN
+     */
+    private List<Integer> readWeights;
+    /**
+     * 负载类型到专用读库组,通过Query.withWorkload或DaoDescription.workload指定负载类型
+     * 组内读库全部不可用或负载类型未配置时使用readDataSource,运行中通过JdbcDatabaseRouter.reload变更
+     */
+    private Map<String, List<DataSource>> readGroups;
+    /**
+     * 读库连续连接失败多少次后摘除,0表示不摘除
+     */
+    private int replicaEjectFailures = 5;
+    /**
+     * 读库摘除的毫秒数,到期后放行一个探测请求,成功则恢复
+     */
+    private long replicaEjectMillis = 30000;
+    /**
+     * 默认读一致性级别,Query和ConsistencyContext作用域未设置时使用
+     */
+    private ConsistencyLevelEnum consistencyLevel = ConsistencyLevelEnum.EVENTUAL;
+    /**
+     * READ_YOUR_WRITES:当前线程写表后多少毫秒内读该表走写库,应大于读库的正常复制延迟
+     */
+    private long readYourWritesMillis = 1000;
+    /**
+     * BOUNDED_STALENESS默认允许的最大复制延迟毫秒数
+     */
+    private long maxStalenessMillis = 1000;
+    /**
+     * 测量读库复制延迟的间隔毫秒数,0表示不测量,此时BOUNDED_STALENESS全部读写库
+     */
+    private long replicaLagCheckMillis;
+    /**
+     * 在读库上执行的测量复制延迟的sql,返回延迟毫秒数
+     * 为null时mysql使用SHOW SLAVE STATUS的Seconds_Behind_Master,其他数据库不测量
+     */
+    private String replicaLagSql;
+    /**
+     * 分片数据源,每个分片的读写库、负载均衡等单独设置,设置了分片键(Table.shardKey或DaoDescription.shardKey)的dao使用
+     */
+    private List<JdbcSettings> shards;
+    /**
+     * 每个分片数据源的分表数,大于1时物理表名为"表名_序号"
+     */
+    private int shardTablesPerDataSource = 1;
+    /**
+     * 分片策略,默认取模
+     */
+    private ShardingStrategyEnum shardingStrategyEnum = ShardingStrategyEnum.MOD;
+    /**
+     * 自定义分片策略,设置后忽略shardingStrategyEnum
+     */
+    private ShardingStrategy shardingStrategy;
+    /**
+     * RANGE分片策略每个分片的上界(不含),升序,个数等于分片总数
+     */
+    private List<Long> shardRanges;
+    /**
+     * CONSISTENT_HASH分片策略每个分片的虚拟节点数
+     */
+    private int shardVirtualNodes = 160;
+    /**
+     * 跨分片查询并行执行子查询的线程池,为null或处于事物中时顺序查询
+     */
+    private ExecutorService scatterExecutor;
+    /**
+     * 跨分片查询等待所有分片返回的最大毫秒数,0表示不限制
+     */
+    private long scatterTimeoutMillis;
+    /**
+     * 跨分片查询有分片超时时是否返回其他分片的部分结果,false时抛出异常
+     */
+    private boolean scatterPartialResults;
+    /**
+     * 配置了多个写库时校验当前写库的间隔毫秒数,0表示不校验,只使用第一个写库
+     * 默认不开启:自动切换要求写库之间有可靠的复制,切换后事物中的写操作抛出DaoException
+     * 开启时必须设置writeQueryTimeoutSeconds,否则创建router时抛出DaoException
+     */
+    private long primaryCheckMillis;
+    /**
+     * 写库连续校验失败多少次后切换到下一个写库
+     */
+    private int primaryFailoverThreshold = 2;
+    /**
+     * 写库校验sql,为null时oracle使用SELECT 1 FROM DUAL,其他为SELECT 1
+     */
+    private String primaryValidationSql;
+    /**
+     * 写库校验sql的超时秒数,0表示不限制
+     */
+    private int primaryValidationTimeoutSeconds = 2;
+    /**
+     * 写操作的超时秒数,0表示不限制;写库失效时避免写操作长时间挂在失效的连接上
+     * 开启写库切换时不能为0:切换后已发出的写操作仍在原写库上,只能等超时返回
+     */
+    private int writeQueryTimeoutSeconds;
+    /**
+     * JdbcDatabaseRouter.reload移除数据源时等待正在执行的请求结束的最大毫秒数
+     */
+    private long drainTimeoutMillis = 30000;
+    /**
+     * 舱壁分区名到分区设置,每个数据源按分区单独限制并发,通过Query.withBulkhead或DaoDescription.bulkhead指定分区
+     * 未指定分区或分区未配置的请求不限制
+     */
+    private Map<String, BulkheadSettings> bulkheads;
+    /**
+     * 每个数据源的自适应并发限制算法,为null时不限制
+     * 按请求的执行时间调整允许的并发数,超过上限的请求直接抛出LimitExceededException
+     */
+    private ConcurrencyLimitEnum concurrencyLimitEnum;
+    /**
+     * 自适应并发限制的初始上限
+     */
+    private int concurrencyLimitInitial = 20;
+    /**
+     * 自适应并发限制的最小上限
+     */
+    private int concurrencyLimitMin = 1;
+    /**
+     * 自适应并发限制的最大上限,应不超过连接池大小
+     */
+    private int concurrencyLimitMax = 200;
+    /**
+     * 对冲读使用的线程池,为null时不对冲;通过Query.withHedgedRead或DaoDescription.hedgedReads开启
+     */
+    private ExecutorService hedgeExecutor;
+    /**
+     * 第一个读库超过最近读延迟的多少百分位未返回时发出对冲请求
+     */
+    private double hedgeDelayPercentile = 95;
+    /**
+     * 发出对冲请求的最小等待毫秒数
+     */
+    private long hedgeMinDelayMillis = 1;
+    /**
+     * 对冲请求最多占读请求的百分比
+     */
+    private int hedgeBudgetPercent = 5;
+    /**
+     * 租户专用数据源的提供者,为null时不按租户路由;dao按TenantContext的租户选择数据源,不支持分片dao
+     */
+    private TenantDataSourceProvider tenantProvider;
+    /**
+     * 全部租户专用数据源的最大连接数之和,超过时关闭最久未访问的空闲租户,0表示不限制
+     */
+    private int tenantMaxConnections;
 }
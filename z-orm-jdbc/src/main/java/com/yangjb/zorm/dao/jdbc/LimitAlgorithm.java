@@ -0,0 +1,110 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import com.yangjb.zorm.dao.jdbc.enums.ConcurrencyLimitEnum;
+
+/**
+ * 自适应并发限制算法,类似tcp拥塞控制:延迟稳定时慢慢增加上限,延迟升高或连接失败时减小
+ * 实现有状态,每个数据源一个实例,由AdaptiveLimiter串行调用
+ */
+public interface LimitAlgorithm {
+    //连接失败或超时时上限减小的比例
+    double DROP_RATIO = 0.5;
+
+    /**
+     * 根据一次请求的结果计算新的上限
+     *
+     * @param limit    - 当前上限
+     * @param rttNanos - 本次请求的执行时间
+     * @param inFlight - 本次请求结束时正在执行的请求数(含本次)
+     * @param dropped  - 是否因连接失败或超时失败
+     * @return - 新的上限,由调用方限制在最小最大值之间
+     */
+    double update(double limit, long rttNanos, int inFlight, boolean dropped);
+
+    /**
+     * 创建内置算法,每个数据源一个实例
+     *
+     * @param concurrencyLimitEnum - 算法
+     * @return - 限制算法
+     */
+    static LimitAlgorithm of(ConcurrencyLimitEnum concurrencyLimitEnum) {
+        switch (concurrencyLimitEnum) {
+            case VEGAS:
+                return new VegasLimit();
+            default:
+                return new GradientLimit();
+        }
+    }
+
+    /**
+     * 新上限=上限*max(0.5,min(1,容忍倍数*最小延迟/本次延迟))+sqrt(上限),再和当前上限平滑
+     * 每PROBE_SAMPLES次重新测量最小延迟,适应数据库基线延迟的变化
+     */
+    final class GradientLimit implements LimitAlgorithm {
+        private static final int PROBE_SAMPLES = 1000;
+        private static final double SMOOTHING = 0.2;
+        //本次延迟不超过最小延迟的多少倍时不减小
+        private static final double TOLERANCE = 2.0;
+        private static final double MIN_GRADIENT = 0.5;
+        private long minRttNanos;
+        private int samples;
+
+        @Override
+        public double update(double limit, long rttNanos, int inFlight, boolean dropped) {
+            if (++samples >= PROBE_SAMPLES) {
+                samples = 0;
+                minRttNanos = 0;
+            }
+            if (minRttNanos == 0 || rttNanos < minRttNanos) {
+                minRttNanos = rttNanos;
+            }
+            if (dropped) {
+                return limit * DROP_RATIO;
+            }
+            if (inFlight * 2 < limit) {//请求量不足以验证上限,不调整
+                return limit;
+            }
+            double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, TOLERANCE * minRttNanos / Math.max(rttNanos, 1)));
+            double newLimit = limit * gradient + Math.sqrt(limit);
+            return limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        }
+    }
+
+    /**
+     * 排队数=上限*(1-最小延迟/本次延迟),小于3*log10(上限)时增加log10(上限),大于6*log10(上限)时减小log10(上限)
+     * 每PROBE_SAMPLES次重新测量最小延迟,适应数据库基线延迟的变化
+     */
+    final class VegasLimit implements LimitAlgorithm {
+        private static final int PROBE_SAMPLES = 1000;
+        private static final double ALPHA = 3;
+        private static final double BETA = 6;
+        private long minRttNanos;
+        private int samples;
+
+        @Override
+        public double update(double limit, long rttNanos, int inFlight, boolean dropped) {
+            if (++samples >= PROBE_SAMPLES) {
+                samples = 0;
+                minRttNanos = 0;
+            }
+            if (minRttNanos == 0 || rttNanos < minRttNanos) {
+                minRttNanos = rttNanos;
+            }
+            if (dropped) {
+                return limit * DROP_RATIO;
+            }
+            if (inFlight * 2 < limit) {//请求量不足以验证上限,不调整
+                return limit;
+            }
+            double step = Math.max(1.0, Math.log10(limit));
+            double queue = limit * (1 - (double) minRttNanos / Math.max(rttNanos, 1));
+            if (queue <= ALPHA * step) {
+                return limit + step;
+            }
+            if (queue >= BETA * step) {
+                return limit - step;
+            }
+            return limit;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import com.yangjb.zorm.dao.jdbc.enums.LoadBalanceEnum;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 读库负载均衡策略,可以通过JdbcSettings.loadBalancer设置自定义实现
+ */
+public interface LoadBalancer {
+
+    /**
+     * 从可用的读库中选择一个
+     *
+     * @param candidates - 未被摘除的读库,不为空
+     * @return - 选中的读库
+     */
+    ReplicaNode select(List<ReplicaNode> candidates);
+
+    /**
+     * 创建内置策略,每个router一个实例
+     *
+     * @param loadBalanceEnum - 策略,null时为随机
+     * @return - 负载均衡策略
+     */
+    static LoadBalancer of(LoadBalanceEnum loadBalanceEnum) {
+        if (loadBalanceEnum == null) {
+            return new RandomLoadBalancer();
+        }
+        switch (loadBalanceEnum) {
+            case WEIGHTED_ROUND_ROBIN:
+                return new WeightedRoundRobinLoadBalancer();
+            case LEAST_OUTSTANDING:
+                return new LeastOutstandingLoadBalancer();
+            case EWMA_P2C:
+                return new EwmaP2CLoadBalancer();
+            default:
+                return new RandomLoadBalancer();
+        }
+    }
+
+    final class RandomLoadBalancer implements LoadBalancer {
+        @Override
+        public ReplicaNode select(List<ReplicaNode> candidates) {
+            return candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+        }
+    }
+
+    /**
+     * 按权重轮询,序号对总权重取模后落在哪个读库的权重区间就选择哪个
+     */
+    final class WeightedRoundRobinLoadBalancer implements LoadBalancer {
+        private final AtomicLong sequence = new AtomicLong();
+
+        @Override
+        public ReplicaNode select(List<ReplicaNode> candidates) {
+            int totalWeight = 0;
+            for (ReplicaNode node : candidates) {
+                totalWeight += node.getWeight();
+            }
+            if (totalWeight <= 0) {
+                return candidates.get((int) (sequence.getAndIncrement() % candidates.size()));
+            }
+            long pos = sequence.getAndIncrement() % totalWeight;
+            for (ReplicaNode node : candidates) {
+                pos -= node.getWeight();
+                if (pos < 0) {
+                    return node;
+                }
+            }
+            return candidates.get(candidates.size() - 1);
+        }
+    }
+
+    /**
+     * 选择正在执行请求数最少的,从随机位置开始遍历,相同时不总是选第一个
+     */
+    final class LeastOutstandingLoadBalancer implements LoadBalancer {
+        @Override
+        public ReplicaNode select(List<ReplicaNode> candidates) {
+            int size = candidates.size();
+            int start = ThreadLocalRandom.current().nextInt(size);
+            ReplicaNode best = null;
+            for (int i = 0; i < size; i++) {
+                ReplicaNode node = candidates.get((start + i) % size);
+                if (best == null || node.getInFlight() < best.getInFlight()) {
+                    best = node;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * power of two choices:随机选两个,选择代价(EWMA延迟*(正在执行请求数+1))较小的
+     */
+    final class EwmaP2CLoadBalancer implements LoadBalancer {
+        @Override
+        public ReplicaNode select(List<ReplicaNode> candidates) {
+            int size = candidates.size();
+            if (size == 1) {
+                return candidates.get(0);
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int i = random.nextInt(size);
+            int j = random.nextInt(size - 1);
+            if (j >= i) {
+                j++;
+            }
+            ReplicaNode a = candidates.get(i);
+            ReplicaNode b = candidates.get(j);
+            return a.cost() <= b.cost() ? a : b;
+        }
+    }
+}
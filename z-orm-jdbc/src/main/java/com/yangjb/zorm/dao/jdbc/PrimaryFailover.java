@@ -0,0 +1,206 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import com.google.common.collect.Lists;
+import com.yangjb.zorm.exception.DaoException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.StatementCallback;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 多个写库的健康检查和自动切换
+ * 定时在当前写库上执行校验sql,连续失败达到阈值后按配置顺序选择下一个校验通过的写库作为新的写库
+ * 切换期间(连续失败达到阈值到切换完成)的写操作直接抛出DaoException,不再获取失效写库的连接
+ * 切换后不自动切回,原写库恢复后作为备用
+ */
+@Slf4j
+public final class PrimaryFailover {
+    //保留的最近切换事件个数
+    private static final int MAX_EVENTS = 20;
+
+    private final List<JdbcTemplate> primaries;
+    private final String validationSql;
+    private final int validationTimeoutSeconds;
+    private final int failureThreshold;
+    //当前写库在primaries中的序号
+    private volatile int activeIndex;
+    //当前写库已不可用,正在选择新的写库
+    private volatile boolean switching;
+    //只在检查线程中读写
+    private int consecutiveFailures;
+    private final LongAdder checkCount = new LongAdder();
+    private final LongAdder checkFailureCount = new LongAdder();
+    private final LongAdder failoverCount = new LongAdder();
+    private final LongAdder rejectedWriteCount = new LongAdder();
+    private volatile long lastFailoverMillis;
+    private final Deque<Event> events = new ArrayDeque<Event>();
+
+    PrimaryFailover(List<JdbcTemplate> primaries, int activeIndex, String validationSql, int validationTimeoutSeconds, int failureThreshold) {
+        this.primaries = primaries;
+        this.activeIndex = activeIndex;
+        this.validationSql = validationSql;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.failureThreshold = Math.max(failureThreshold, 1);
+    }
+
+    /**
+     * 当前写库的序号
+     *
+     * @throws DaoException 正在切换写库
+     */
+    int route() {
+        if (switching) {
+            rejectedWriteCount.increment();
+            throw new DaoException("写库" + activeIndex + "不可用,正在切换写库");
+        }
+        return activeIndex;
+    }
+
+    /**
+     * 检查当前写库,连续失败达到阈值时切换到下一个可用的写库
+     * 没有可用写库时保持切换状态,下次检查继续尝试
+     */
+    void check() {
+        int active = activeIndex;
+        checkCount.increment();
+        if (this.validate(active)) {
+            consecutiveFailures = 0;
+            switching = false;
+            return;
+        }
+        checkFailureCount.increment();
+        if (++consecutiveFailures < failureThreshold) {
+            return;
+        }
+
+        switching = true;
+        for (int i = 1; i < primaries.size(); i++) {
+            int candidate = (active + i) % primaries.size();
+            if (this.validate(candidate)) {
+                activeIndex = candidate;
+                consecutiveFailures = 0;
+                lastFailoverMillis = System.currentTimeMillis();
+                failoverCount.increment();
+                synchronized (events) {
+                    if (events.size() >= MAX_EVENTS) {
+                        events.removeFirst();
+                    }
+                    events.addLast(new Event(active, candidate, lastFailoverMillis));
+                }
+                switching = false;
+                log.warn("写库" + active + "连续" + failureThreshold + "次校验失败,切换到写库" + candidate);
+                return;
+            }
+        }
+        log.error("写库" + active + "连续" + consecutiveFailures + "次校验失败,没有可用的写库");
+    }
+
+    private boolean validate(int index) {
+        try {
+            primaries.get(index).execute((StatementCallback<Boolean>) stmt -> {
+                if (validationTimeoutSeconds > 0) {
+                    stmt.setQueryTimeout(validationTimeoutSeconds);
+                }
+                return stmt.execute(validationSql);
+            });
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("validate primary " + index + " failed", e);
+            return false;
+        }
+    }
+
+    /**
+     * 当前写库在写库列表中的序号
+     */
+    public int getActiveIndex() {
+        return activeIndex;
+    }
+
+    /**
+     * 是否正在切换写库,此时写操作直接失败
+     */
+    public boolean isSwitching() {
+        return switching;
+    }
+
+    public long getCheckCount() {
+        return checkCount.sum();
+    }
+
+    public long getCheckFailureCount() {
+        return checkFailureCount.sum();
+    }
+
+    public long getFailoverCount() {
+        return failoverCount.sum();
+    }
+
+    /**
+     * 切换期间被拒绝的写操作次数
+     */
+    public long getRejectedWriteCount() {
+        return rejectedWriteCount.sum();
+    }
+
+    /**
+     * 最后一次切换的时间
+     *
+     * @return 没有切换过返回0
+     */
+    public long getLastFailoverMillis() {
+        return lastFailoverMillis;
+    }
+
+    /**
+     * 最近的切换事件,按时间先后
+     */
+    public List<Event> getEvents() {
+        synchronized (events) {
+            return Lists.newArrayList(events);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PrimaryFailover[activeIndex=" + activeIndex + ", switching=" + switching + ", checkCount=" + getCheckCount()
+                + ", checkFailureCount=" + getCheckFailureCount() + ", failoverCount=" + getFailoverCount()
+                + ", rejectedWriteCount=" + getRejectedWriteCount() + "]";
+    }
+
+    /**
+     * 一次写库切换
+     */
+    public static final class Event {
+        private final int fromIndex;
+        private final int toIndex;
+        private final long timeMillis;
+
+        private Event(int fromIndex, int toIndex, long timeMillis) {
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+            this.timeMillis = timeMillis;
+        }
+
+        public int getFromIndex() {
+            return fromIndex;
+        }
+
+        public int getToIndex() {
+            return toIndex;
+        }
+
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Event[" + fromIndex + "->" + toIndex + ", timeMillis=" + timeMillis + "]";
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * 查询结果缓存,key为sql和绑定值,适用于很少修改的字典、配置表
+ * 每个表有一个修改版本号,通过dao对该表的任何写操作都会增加版本号
+ * 缓存的结果记录写入时的版本号,读取时版本号不一致即视为过期,不需要扫描缓存
+ * 按估算的权重(结果中字段值个数)限制内存
+ * 表最后一次修改后quietMillis内查询的结果不放入缓存:查询可能读到复制延迟中的读库上修改之前的数据
+ */
+public final class QueryResultCache {
+    //表名到修改版本号,同一个表的多个dao共享
+    private static final ConcurrentMap<String, TableVersion> TABLE_VERSIONS = Maps.newConcurrentMap();
+
+    private final TableVersion tableVersion;
+    private final long quietMillis;
+    private final Cache<List<Object>, Entry> cache;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder staleCount = new LongAdder();
+
+    QueryResultCache(String tableName, long maximumWeight, long expireSeconds, long quietMillis) {
+        this.tableVersion = tableVersion(tableName);
+        this.quietMillis = quietMillis;
+        CacheBuilder<List<Object>, Entry> builder = CacheBuilder.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((List<Object> key, Entry entry) -> entry.weight)
+                .recordStats();
+        if (expireSeconds > 0) {
+            builder.expireAfterWrite(expireSeconds, TimeUnit.SECONDS);
+        }
+        this.cache = builder.build();
+    }
+
+    /**
+     * 表的修改版本号
+     *
+     * @param tableName - 表名
+     * @return - 版本号
+     */
+    static TableVersion tableVersion(String tableName) {
+        TableVersion version = TABLE_VERSIONS.get(tableName);
+        if (version == null) {
+            version = new TableVersion();
+            TableVersion exist = TABLE_VERSIONS.putIfAbsent(tableName, version);
+            if (exist != null) {
+                version = exist;
+            }
+        }
+        return version;
+    }
+
+    /**
+     * 读取缓存的结果,不存在或已过期时调用loader查询并放入缓存
+     *
+     * @param sql       - sql
+     * @param valueList - 绑定值
+     * @param loader    - 查询数据库
+     * @param weigher   - 估算结果的权重
+     * @param copier    - 拷贝结果,缓存中和返回给调用方的是不同对象
+     * @return - 结果
+     */
+    @SuppressWarnings("unchecked")
+    <R> R get(String sql, List<Object> valueList, Supplier<R> loader, ToIntFunction<R> weigher, UnaryOperator<R> copier) {
+        List<Object> key = Lists.newArrayListWithCapacity(valueList.size() + 1);
+        key.add(sql);
+        key.addAll(valueList);
+
+        //查询前取版本号,查询期间有写操作时放入的结果版本号已经落后,下次读取时丢弃
+        long version = tableVersion.version.get();
+        Entry entry = cache.getIfPresent(key);
+        if (entry != null) {
+            if (entry.version == version) {
+                hitCount.increment();
+                return copier.apply((R) entry.result);
+            }
+            staleCount.increment();
+            cache.invalidate(key);
+        }
+
+        missCount.increment();
+        R result = loader.get();
+        if (System.currentTimeMillis() - tableVersion.lastBumpMillis >= quietMillis) {
+            cache.put(key, new Entry(version, copier.apply(result), weigher.applyAsInt(result)));
+        }
+        return result;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * 未命中次数,包含因版本号过期而丢弃的次数
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * 因表版本号变化而丢弃的次数
+     */
+    public long getStaleCount() {
+        return staleCount.sum();
+    }
+
+    /**
+     * 因超过最大权重或过期被淘汰的条数
+     */
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryResultCache[size=" + size() + ", hitCount=" + getHitCount() + ", missCount=" + getMissCount()
+                + ", staleCount=" + getStaleCount() + ", evictionCount=" + getEvictionCount() + "]";
+    }
+
+    /**
+     * 表的修改版本号和最后一次修改的时间
+     */
+    static final class TableVersion {
+        private final AtomicLong version = new AtomicLong();
+        private volatile long lastBumpMillis;
+
+        /**
+         * 表被修改,先记录时间再增加版本号,读到新版本号的查询一定能看到修改时间
+         */
+        void bump() {
+            lastBumpMillis = System.currentTimeMillis();
+            version.incrementAndGet();
+        }
+    }
+
+    private static final class Entry {
+        private final long version;
+        private final Object result;
+        private final int weight;
+
+        private Entry(long version, Object result, int weight) {
+            this.version = version;
+            this.result = result;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import com.yangjb.zorm.exception.LimitExceededException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个数据源的状态:权重、正在执行的请求数、EWMA延迟、连续失败次数
+ * 写库只使用正在执行的请求数,用于拓扑变更时排空
+ * 配置了舱壁分区时每个分区在该数据源上单独限制并发;开启自适应并发限制时超过上限的请求直接拒绝
+ * 读库连续失败达到阈值后摘除,摘除时间到期后只放行一个探测请求,成功则恢复,失败则继续摘除
+ */
+public final class ReplicaNode {
+    //EWMA平滑系数,越大越偏向最近的延迟
+    private static final double EWMA_ALPHA = 0.3;
+
+    private final JdbcTemplate jdbcTemplate;
+    //健康检查和复制延迟测量使用,不记录执行情况也不受并发限制
+    private final JdbcTemplate healthJdbcTemplate;
+    //未开启自适应并发限制时为null
+    private final AdaptiveLimiter limiter;
+    //舱壁分区名到该分区使用的JdbcTemplate,创建后不变
+    private final Map<String, TrackedJdbcTemplate> bulkheadTemplates;
+    private final int weight;
+    private final int ejectFailures;
+    private final long ejectMillis;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    //摘除到期时间,0表示未摘除
+    private final AtomicLong ejectedUntil = new AtomicLong();
+    //并发更新时允许丢失个别样本
+    private volatile double ewmaNanos;
+    //复制延迟毫秒数,-1表示未知
+    private volatile long lagMillis = -1;
+    //最后一次测量复制延迟的时间
+    private volatile long lagMeasuredAt;
+
+    ReplicaNode(DataSource dataSource, int weight, int ejectFailures, long ejectMillis, Map<String, BulkheadSettings> bulkheads, AdaptiveLimiter limiter) {
+        this.jdbcTemplate = new TrackedJdbcTemplate(dataSource, this, null);
+        this.healthJdbcTemplate = new JdbcTemplate(dataSource);
+        this.limiter = limiter;
+        if (bulkheads == null || bulkheads.isEmpty()) {
+            this.bulkheadTemplates = Collections.emptyMap();
+        } else {
+            this.bulkheadTemplates = new HashMap<String, TrackedJdbcTemplate>();
+            for (Map.Entry<String, BulkheadSettings> entry : bulkheads.entrySet()) {
+                bulkheadTemplates.put(entry.getKey(), new TrackedJdbcTemplate(dataSource, this, new Bulkhead(entry.getKey(), entry.getValue())));
+            }
+        }
+        this.weight = weight;
+        this.ejectFailures = ejectFailures;
+        this.ejectMillis = ejectMillis;
+    }
+
+    public DataSource getDataSource() {
+        return jdbcTemplate.getDataSource();
+    }
+
+    public JdbcTemplate getJdbcTemplate() {
+        return jdbcTemplate;
+    }
+
+    JdbcTemplate getHealthJdbcTemplate() {
+        return healthJdbcTemplate;
+    }
+
+    /**
+     * 自适应并发限制的状态,用于监控
+     *
+     * @return 未开启时返回null
+     */
+    public AdaptiveLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * 舱壁分区使用的JdbcTemplate
+     *
+     * @param bulkhead - 分区名,为null或未配置时不限制
+     */
+    JdbcTemplate getJdbcTemplate(String bulkhead) {
+        if (bulkhead == null) {
+            return jdbcTemplate;
+        }
+        JdbcTemplate template = bulkheadTemplates.get(bulkhead);
+        return template == null ? jdbcTemplate : template;
+    }
+
+    /**
+     * 各舱壁分区的状态,用于监控
+     */
+    public List<Bulkhead> getBulkheads() {
+        List<Bulkhead> bulkheads = new ArrayList<Bulkhead>(bulkheadTemplates.size());
+        for (TrackedJdbcTemplate template : bulkheadTemplates.values()) {
+            bulkheads.add(template.getBulkhead());
+        }
+        return bulkheads;
+    }
+
+    /**
+     * 设置所有分区的JdbcTemplate的超时秒数
+     */
+    void setQueryTimeout(int queryTimeoutSeconds) {
+        jdbcTemplate.setQueryTimeout(queryTimeoutSeconds);
+        for (TrackedJdbcTemplate template : bulkheadTemplates.values()) {
+            template.setQueryTimeout(queryTimeoutSeconds);
+        }
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * 正在执行的请求数
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public double getEwmaLatencyMillis() {
+        return ewmaNanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * 最后一次测量的复制延迟毫秒数
+     *
+     * @return 未测量或测量失败返回-1
+     */
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    long getLagMeasuredAt() {
+        return lagMeasuredAt;
+    }
+
+    void setLagMillis(long lagMillis) {
+        this.lagMillis = lagMillis;
+        this.lagMeasuredAt = System.currentTimeMillis();
+    }
+
+    public boolean isEjected() {
+        return ejectedUntil.get() != 0;
+    }
+
+    /**
+     * 负载均衡使用的代价:EWMA延迟*(正在执行请求数+1)
+     */
+    double cost() {
+        return (ewmaNanos + 1) * (inFlight.get() + 1);
+    }
+
+    /**
+     * 摘除到期时尝试成为探测请求,同一时间只有一个请求能成功,探测期间继续视为摘除
+     */
+    boolean tryProbe(long now) {
+        long until = ejectedUntil.get();
+        return until != 0 && now >= until && ejectedUntil.compareAndSet(until, now + ejectMillis);
+    }
+
+    /**
+     * @throws LimitExceededException 超过自适应并发上限
+     */
+    void onStart() {
+        if (limiter != null && !limiter.tryAcquire()) {
+            throw new LimitExceededException("数据源并发数已达到上限" + limiter.getLimit());
+        }
+        inFlight.incrementAndGet();
+    }
+
+    void onSuccess(long nanos) {
+        if (limiter != null) {
+            limiter.release(nanos, false);
+        }
+        inFlight.decrementAndGet();
+        ewmaNanos = ewmaNanos == 0 ? nanos : ewmaNanos + EWMA_ALPHA * (nanos - ewmaNanos);
+        consecutiveFailures.set(0);
+        ejectedUntil.set(0);
+    }
+
+    /**
+     * 非数据库原因中断,只减少正在执行的请求数
+     */
+    void onAbort() {
+        if (limiter != null) {
+            limiter.release();
+        }
+        inFlight.decrementAndGet();
+    }
+
+    void onFailure(long nanos, RuntimeException e) {
+        if (!isConnectionFailure(e)) {//sql错误等说明数据库可用
+            this.onSuccess(nanos);
+            return;
+        }
+        if (limiter != null) {
+            limiter.release(nanos, true);
+        }
+        inFlight.decrementAndGet();
+        ewmaNanos = ewmaNanos == 0 ? nanos : ewmaNanos + EWMA_ALPHA * (nanos - ewmaNanos);
+        if (ejectFailures > 0 && consecutiveFailures.incrementAndGet() >= ejectFailures) {
+            ejectedUntil.set(System.currentTimeMillis() + ejectMillis);
+        }
+    }
+
+    private static boolean isConnectionFailure(RuntimeException e) {
+        return e instanceof DataAccessResourceFailureException
+                || e instanceof TransientDataAccessResourceException
+                || e instanceof RecoverableDataAccessException
+                || e instanceof QueryTimeoutException;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicaNode[weight=" + weight + ", inFlight=" + getInFlight() + ", ewmaLatencyMillis=" + getEwmaLatencyMillis()
+                + ", lagMillis=" + lagMillis + ", consecutiveFailures=" + consecutiveFailures.get() + ", ejected=" + isEjected() + "]";
+    }
+}
@@ -0,0 +1,162 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import com.google.common.collect.Lists;
+import com.yangjb.zorm.dao.jdbc.transaction.TransactionContext;
+import com.yangjb.zorm.exception.DaoException;
+import com.yangjb.zorm.exception.DaoExceptionTranslator;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 跨分片查询的scatter-gather执行器,每个dao一个
+ * 每个分片的子查询在线程池中并行执行,未设置线程池或处于事物中时在当前线程顺序执行
+ * 超过scatterTimeoutMillis未返回的分片:scatterPartialResults为true时跳过,只返回已完成分片的结果;否则取消其他分片并抛出DaoException
+ * 分片执行出错时总是取消其他分片并抛出异常
+ */
+@Slf4j
+final class ScatterGatherExecutor {
+    private final ExecutorService executor;
+    private final long timeoutMillis;
+    private final boolean partialResults;
+    private final LongAdder partialResultCount = new LongAdder();
+
+    ScatterGatherExecutor(JdbcSettings jdbcSettings) {
+        this.executor = jdbcSettings.getScatterExecutor();
+        this.timeoutMillis = jdbcSettings.getScatterTimeoutMillis();
+        this.partialResults = jdbcSettings.isScatterPartialResults();
+    }
+
+    /**
+     * 在每个分片上执行task
+     *
+     * @param shards - 分片
+     * @param task   - 单个分片上的子查询
+     * @return - 和shards顺序一致的结果,超时跳过的分片为null
+     */
+    <S, R> List<R> execute(List<S> shards, Function<S, R> task) {
+        List<R> results = Lists.newArrayListWithCapacity(shards.size());
+        long deadline = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : Long.MAX_VALUE;
+        if (executor == null || shards.size() == 1 || TransactionContext.isInTransaction()) {//事物中的查询必须使用当前线程的连接
+            for (S shard : shards) {
+                if (System.currentTimeMillis() > deadline) {
+                    this.onTimeout(shard);
+                    results.add(null);
+                    continue;
+                }
+                results.add(task.apply(shard));
+            }
+            return results;
+        }
+
+        List<Future<R>> futures = Lists.newArrayListWithCapacity(shards.size());
+        try {
+            for (S shard : shards) {
+                futures.add(executor.submit(() -> task.apply(shard)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS));
+                } catch (TimeoutException e) {
+                    this.onTimeout(shards.get(i));
+                    results.add(null);
+                }
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DaoException("scatter-gather interrupted", e);
+        } catch (ExecutionException e) {
+            throw DaoExceptionTranslator.translate(e.getCause());
+        } finally {
+            for (Future<R> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private void onTimeout(Object shard) {
+        if (!partialResults) {
+            throw new DaoException("分片" + shard + "执行超过" + timeoutMillis + "ms");
+        }
+        partialResultCount.increment();
+        log.warn("分片" + shard + "执行超过" + timeoutMillis + "ms,返回部分结果");
+    }
+
+    /**
+     * 因分片超时返回部分结果的次数
+     */
+    long getPartialResultCount() {
+        return partialResultCount.sum();
+    }
+
+    /**
+     * k路归并各分片已排序的结果,再取全局的offset和limit
+     *
+     * @param shardResults - 各分片的结果,可以包含null
+     * @param comparator   - 和各分片order by一致的比较器,为null时按分片顺序拼接;比较器和数据库的排序(null的位置、字符串collation)不一致时合并结果无序
+     * @param offset       - 全局offset
+     * @param limit        - 全局limit,小于等于0表示不限制
+     * @return - 合并后的结果
+     */
+    static <T> List<T> merge(List<List<T>> shardResults, Comparator<? super T> comparator, int offset, int limit) {
+        List<T> merged = Lists.newArrayList();
+        int skipped = 0;
+        if (comparator == null) {
+            for (List<T> shardResult : shardResults) {
+                if (shardResult == null) {
+                    continue;
+                }
+                for (T entity : shardResult) {
+                    if (skipped++ < offset) {
+                        continue;
+                    }
+                    if (limit > 0 && merged.size() >= limit) {
+                        return merged;
+                    }
+                    merged.add(entity);
+                }
+            }
+            return merged;
+        }
+
+        //堆中保存每个分片的当前元素,每次取出最小的并放入该分片的下一个元素
+        PriorityQueue<Head<T>> heads = new PriorityQueue<Head<T>>(Math.max(shardResults.size(), 1), (a, b) -> comparator.compare(a.value, b.value));
+        for (List<T> shardResult : shardResults) {
+            if (shardResult != null && !shardResult.isEmpty()) {
+                Iterator<T> iterator = shardResult.iterator();
+                heads.add(new Head<T>(iterator.next(), iterator));
+            }
+        }
+        while (!heads.isEmpty() && (limit <= 0 || merged.size() < limit)) {
+            Head<T> head = heads.poll();
+            if (skipped++ >= offset) {
+                merged.add(head.value);
+            }
+            if (head.iterator.hasNext()) {
+                heads.add(new Head<T>(head.iterator.next(), head.iterator));
+            }
+        }
+        return merged;
+    }
+
+    private static final class Head<T> {
+        private final T value;
+        private final Iterator<T> iterator;
+
+        private Head(T value, Iterator<T> iterator) {
+            this.value = value;
+            this.iterator = iterator;
+        }
+    }
+}
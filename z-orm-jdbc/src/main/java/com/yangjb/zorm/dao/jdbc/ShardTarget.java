@@ -0,0 +1,34 @@
+package com.yangjb.zorm.dao.jdbc;
+
+/**
+ * 一个分片:所在数据源的路由器和物理表对应的EntityMapper
+ * 未分片的dao只有一个ShardTarget
+ */
+final class ShardTarget<T> {
+    private final int index;
+    private final JdbcDatabaseRouter router;
+    private final EntityMapper<T> entityMapper;
+
+    ShardTarget(int index, JdbcDatabaseRouter router, EntityMapper<T> entityMapper) {
+        this.index = index;
+        this.router = router;
+        this.entityMapper = entityMapper;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    JdbcDatabaseRouter getRouter() {
+        return router;
+    }
+
+    EntityMapper<T> getEntityMapper() {
+        return entityMapper;
+    }
+
+    @Override
+    public String toString() {
+        return "ShardTarget[index=" + index + ", table=" + entityMapper.getTableName() + "]";
+    }
+}
@@ -0,0 +1,122 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.yangjb.zorm.dao.PropertyAccessor;
+import com.yangjb.zorm.exception.DaoException;
+import com.yangjb.zorm.exception.DaoMethodParameterException;
+import com.yangjb.zorm.query.Criteria;
+import com.yangjb.zorm.query.CriteriaOperators;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 分片路由器,每个分片的dao一个
+ * 分片总数 = 分片数据源个数 * 每个数据源的分表数,第i个分片位于第i/分表数个数据源
+ * 每个数据源只有一个表时物理表名和逻辑表名相同,否则为"表名_i%分表数"
+ * 按分片键的值、entity的分片键属性或criteria中分片键的EQ/IN条件确定分片
+ */
+final class ShardingRouter<T> {
+    private final String shardKey;
+    private final PropertyAccessor shardKeyAccessor;
+    private final ShardingStrategy shardingStrategy;
+    private final List<ShardTarget<T>> targets;
+
+    /**
+     * @param entityClass  - entityClass
+     * @param entityMapper - 逻辑表的EntityMapper
+     * @param shardKey     - 分片键属性名
+     * @param router       - 包含分片数据源的路由器
+     * @param jdbcSettings - 分片设置
+     */
+    ShardingRouter(Class<T> entityClass, EntityMapper<T> entityMapper, String shardKey, JdbcDatabaseRouter router, JdbcSettings jdbcSettings) {
+        this.shardKey = shardKey;
+        this.shardKeyAccessor = entityMapper.getPropertyToAccessorMapper().get(shardKey);
+        if (shardKeyAccessor == null) {
+            throw new DaoException(entityMapper.getEntityName() + "没有分片键属性" + shardKey);
+        }
+        if (router.getShardRouters().isEmpty()) {
+            throw new DaoException(entityMapper.getEntityName() + "设置了分片键" + shardKey + ",JdbcSettings必须设置shards");
+        }
+        this.shardingStrategy = jdbcSettings.getShardingStrategy() != null ? jdbcSettings.getShardingStrategy() : ShardingStrategy.of(jdbcSettings);
+
+        int tablesPerDataSource = Math.max(jdbcSettings.getShardTablesPerDataSource(), 1);
+        List<JdbcDatabaseRouter> shardRouters = router.getShardRouters();
+        List<EntityMapper<T>> tableMappers = Lists.newArrayListWithCapacity(tablesPerDataSource);
+        for (int i = 0; i < tablesPerDataSource; i++) {
+            tableMappers.add(tablesPerDataSource == 1 ? entityMapper : new EntityMapper<T>(entityClass, entityMapper.getTableName() + "_" + i));
+        }
+        List<ShardTarget<T>> targetList = Lists.newArrayListWithCapacity(shardRouters.size() * tablesPerDataSource);
+        for (int i = 0; i < shardRouters.size() * tablesPerDataSource; i++) {
+            targetList.add(new ShardTarget<T>(i, shardRouters.get(i / tablesPerDataSource), tableMappers.get(i % tablesPerDataSource)));
+        }
+        this.targets = Collections.unmodifiableList(targetList);
+    }
+
+    String getShardKey() {
+        return shardKey;
+    }
+
+    List<ShardTarget<T>> getTargets() {
+        return targets;
+    }
+
+    /**
+     * 按分片键的值路由
+     */
+    ShardTarget<T> route(Object shardValue) {
+        if (shardValue == null) {
+            throw new DaoMethodParameterException("分片键" + shardKey + "的值不能为null");
+        }
+        int index = shardingStrategy.shard(shardValue, targets.size());
+        if (index < 0 || index >= targets.size()) {
+            throw new DaoException("分片策略返回的序号[" + index + "]超出分片数[" + targets.size() + "]");
+        }
+        return targets.get(index);
+    }
+
+    /**
+     * 按entity的分片键属性路由
+     */
+    ShardTarget<T> routeEntity(T entity) {
+        return this.route(shardKeyAccessor.get(entity));
+    }
+
+    /**
+     * criteria可能命中的分片序号,多个EQ/IN条件时取交集
+     *
+     * @param criteria - 条件,可以为null
+     * @return - 升序的分片序号,不包含分片键的EQ/IN条件时为null,表示所有分片
+     */
+    Set<Integer> shardsOf(Criteria criteria) {
+        if (criteria == null) {
+            return null;
+        }
+        Set<Integer> shards = null;
+        for (Criteria c : criteria.getCriteriaChain()) {
+            if (!shardKey.equals(c.getKey())) {
+                continue;
+            }
+            Set<Integer> current = new TreeSet<Integer>();
+            if (CriteriaOperators.EQ.match(c.getOperator())) {
+                current.add(this.route(c.getValue()).getIndex());
+            } else if (CriteriaOperators.IN.match(c.getOperator())) {
+                for (Object value : (Collection<?>) c.getValue()) {
+                    current.add(this.route(value).getIndex());
+                }
+            } else {
+                continue;
+            }
+            if (shards == null) {
+                shards = current;
+            } else {
+                shards = Sets.newTreeSet(Sets.intersection(shards, current));
+            }
+        }
+        return shards;
+    }
+}
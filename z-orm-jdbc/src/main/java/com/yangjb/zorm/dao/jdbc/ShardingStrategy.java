@@ -0,0 +1,147 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import com.google.common.hash.Hashing;
+import com.yangjb.zorm.dao.jdbc.enums.ShardingStrategyEnum;
+import com.yangjb.zorm.exception.DaoException;
+import com.yangjb.zorm.exception.DaoMethodParameterException;
+import org.apache.commons.collections.CollectionUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 分片策略:把分片键的值映射到分片序号,可以通过JdbcSettings.shardingStrategy设置自定义实现
+ */
+public interface ShardingStrategy {
+
+    /**
+     * 计算分片序号
+     *
+     * @param shardValue - 分片键的值,不为null
+     * @param shardCount - 分片总数
+     * @return - 分片序号,从0开始小于shardCount
+     */
+    int shard(Object shardValue, int shardCount);
+
+    /**
+     * 创建内置策略
+     *
+     * @param jdbcSettings - 分片设置
+     * @return - 分片策略
+     */
+    static ShardingStrategy of(JdbcSettings jdbcSettings) {
+        if (jdbcSettings.getShardingStrategyEnum() == null) {
+            return new ModShardingStrategy();
+        }
+        switch (jdbcSettings.getShardingStrategyEnum()) {
+            case RANGE:
+                return new RangeShardingStrategy(jdbcSettings.getShardRanges());
+            case CONSISTENT_HASH:
+                return new ConsistentHashShardingStrategy(jdbcSettings.getShardVirtualNodes());
+            default:
+                return new ModShardingStrategy();
+        }
+    }
+
+    /**
+     * Integer、Long等不同类型的相同数值得到相同的key
+     */
+    static String key(Object shardValue) {
+        return shardValue instanceof Number ? String.valueOf(((Number) shardValue).longValue()) : String.valueOf(shardValue);
+    }
+
+    final class ModShardingStrategy implements ShardingStrategy {
+        @Override
+        public int shard(Object shardValue, int shardCount) {
+            if (shardValue instanceof Number) {
+                return (int) Math.floorMod(((Number) shardValue).longValue(), (long) shardCount);
+            }
+            return Math.floorMod(Hashing.murmur3_32().hashString(key(shardValue), StandardCharsets.UTF_8).asInt(), shardCount);
+        }
+    }
+
+    /**
+     * 第i个分片包含[ranges[i-1], ranges[i])的值,ranges为升序的上界(不含)
+     */
+    final class RangeShardingStrategy implements ShardingStrategy {
+        private final long[] upperBounds;
+
+        RangeShardingStrategy(List<Long> ranges) {
+            if (CollectionUtils.isEmpty(ranges)) {
+                throw new DaoException("RANGE分片策略必须设置shardRanges");
+            }
+            this.upperBounds = new long[ranges.size()];
+            for (int i = 0; i < ranges.size(); i++) {
+                upperBounds[i] = ranges.get(i);
+                if (i > 0 && upperBounds[i] <= upperBounds[i - 1]) {
+                    throw new DaoException("shardRanges必须升序:" + ranges);
+                }
+            }
+        }
+
+        @Override
+        public int shard(Object shardValue, int shardCount) {
+            if (upperBounds.length != shardCount) {
+                throw new DaoException("shardRanges个数[" + upperBounds.length + "]和分片数[" + shardCount + "]不一致");
+            }
+            if (!(shardValue instanceof Number)) {
+                throw new DaoMethodParameterException("RANGE分片键的值必须是数字:" + shardValue);
+            }
+            long value = ((Number) shardValue).longValue();
+            for (int i = 0; i < upperBounds.length; i++) {
+                if (value < upperBounds[i]) {
+                    return i;
+                }
+            }
+            throw new DaoMethodParameterException("分片键的值[" + value + "]超出最后一个分片的范围[" + upperBounds[upperBounds.length - 1] + "]");
+        }
+    }
+
+    /**
+     * 每个分片在hash环上有virtualNodes个虚拟节点,值落在环上顺时针的第一个节点所属的分片
+     */
+    final class ConsistentHashShardingStrategy implements ShardingStrategy {
+        private final int virtualNodes;
+        //分片数不变时只构建一次
+        private volatile Ring ring;
+
+        ConsistentHashShardingStrategy(int virtualNodes) {
+            this.virtualNodes = virtualNodes > 0 ? virtualNodes : 1;
+        }
+
+        @Override
+        public int shard(Object shardValue, int shardCount) {
+            Ring r = ring;
+            if (r == null || r.shardCount != shardCount) {
+                r = new Ring(shardCount, virtualNodes);
+                ring = r;
+            }
+            return r.shard(hash(key(shardValue)));
+        }
+
+        private static int hash(String key) {
+            return Hashing.murmur3_32().hashString(key, StandardCharsets.UTF_8).asInt();
+        }
+
+        private static final class Ring {
+            private final int shardCount;
+            private final TreeMap<Integer, Integer> nodes = new TreeMap<Integer, Integer>();
+
+            private Ring(int shardCount, int virtualNodes) {
+                this.shardCount = shardCount;
+                for (int shard = 0; shard < shardCount; shard++) {
+                    for (int i = 0; i < virtualNodes; i++) {
+                        nodes.put(hash("SHARD-" + shard + "-NODE-" + i), shard);
+                    }
+                }
+            }
+
+            private int shard(int hash) {
+                Map.Entry<Integer, Integer> entry = nodes.ceilingEntry(hash);
+                return entry == null ? nodes.firstEntry().getValue() : entry.getValue();
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yangjb.zorm.query.*;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.yangjb.zorm.constant.MixedConstant.*;
+
+/**
+ * sql形状缓存
+ * 条件的key和操作符、IN列表长度、返回字段、group by、order by、offset和limit都相同的查询生成的sql相同,只有绑定的值不同
+ * 以query的结构指纹为key缓存拼装好的sql和取值计划,命中时只按计划从criteria中取出绑定值
+ */
+public final class SqlShapeCache {
+    private static final char SEPARATOR = '|';
+
+    private final Cache<String, SqlShape> cache;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    SqlShapeCache(int maximumSize) {
+        this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    }
+
+    /**
+     * 按指纹获取缓存的sql形状,不存在返回null
+     */
+    SqlShape get(String fingerprint) {
+        SqlShape shape = cache.getIfPresent(fingerprint);
+        if (shape == null) {
+            missCount.increment();
+        } else {
+            hitCount.increment();
+        }
+        return shape;
+    }
+
+    void put(String fingerprint, SqlShape shape) {
+        cache.put(fingerprint, shape);
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * 当前缓存的sql形状个数
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    @Override
+    public String toString() {
+        return "SqlShapeCache[size=" + size() + ", hitCount=" + getHitCount() + ", missCount=" + getMissCount() + "]";
+    }
+
+    /**
+     * select语句的结构指纹
+     *
+     * @param query - query
+     * @return - 指纹
+     */
+    static String fingerprint(Query query) {
+        StringBuilder sb = new StringBuilder("S");
+        sb.append(SEPARATOR);
+        for (String field : query.getFields()) {
+            sb.append(field).append(',');
+        }
+        sb.append(SEPARATOR);
+        appendCriteria(sb, query.getCriteria());
+        sb.append(SEPARATOR);
+        for (GroupBy groupBy : query.getGroupBys()) {
+            sb.append(groupBy.getKey()).append(' ').append(groupBy.getGroupCountAlias()).append(',');
+        }
+        sb.append(SEPARATOR);
+        for (OrderBy orderBy : query.getOrderBys()) {
+            sb.append(orderBy.getKey()).append(' ').append(orderBy.getDirection()).append(',');
+        }
+        sb.append(SEPARATOR).append(query.getOffset()).append(SEPARATOR).append(query.getLimit());
+        return sb.toString();
+    }
+
+    /**
+     * count语句的结构指纹
+     *
+     * @param criteria - 条件
+     * @return - 指纹
+     */
+    static String fingerprint(Criteria criteria) {
+        StringBuilder sb = new StringBuilder("C");
+        sb.append(SEPARATOR);
+        appendCriteria(sb, criteria);
+        return sb.toString();
+    }
+
+    private static void appendCriteria(StringBuilder sb, Criteria criteria) {
+        if (criteria == null) {
+            return;
+        }
+        for (Criteria c : criteria.getCriteriaChain()) {
+            sb.append(c.getKey()).append(' ').append(c.getOperator());
+            if (CriteriaOperators.isMultiValueOperator(c.getOperator())) {
+                sb.append(' ').append(((Collection) c.getValue()).size());
+            }
+            sb.append(',');
+        }
+    }
+
+    /**
+     * 拼装好的sql和取值计划
+     */
+    static final class SqlShape {
+        private final String sql;
+        //criteria链中每个条件绑定值的个数:0无值,1单值,IN列表为补齐后的长度
+        private final int[] valuePlan;
+
+        SqlShape(String sql, Criteria criteria, int inListBucketLimit) {
+            this.sql = sql;
+            if (criteria == null) {
+                this.valuePlan = new int[INT_0];
+                return;
+            }
+            List<Criteria> criterias = criteria.getCriteriaChain();
+            this.valuePlan = new int[criterias.size()];
+            for (int i = INT_0; i < criterias.size(); i++) {
+                Criteria c = criterias.get(i);
+                if (CriteriaOperators.isSingleValueOperator(c.getOperator())) {
+                    valuePlan[i] = INT_1;
+                } else if (CriteriaOperators.isMultiValueOperator(c.getOperator())) {
+                    valuePlan[i] = JdbcHelper.inListBucketSize(((Collection) c.getValue()).size(), inListBucketLimit);
+                }
+            }
+        }
+
+        String getSql() {
+            return sql;
+        }
+
+        /**
+         * 按取值计划从criteria中取出绑定值,顺序和JdbcHelper.WHERE一致
+         *
+         * @param criteria  - 和指纹相同结构的条件
+         * @param valueList - 值列表
+         */
+        void extractValues(Criteria criteria, List<Object> valueList) {
+            if (criteria == null) {
+                return;
+            }
+            List<Criteria> criterias = criteria.getCriteriaChain();
+            for (int i = INT_0; i < valuePlan.length; i++) {
+                Criteria c = criterias.get(i);
+                if (valuePlan[i] == INT_0) {
+                    continue;
+                }
+                if (!CriteriaOperators.isMultiValueOperator(c.getOperator())) {
+                    valueList.add(c.getValue());
+                    continue;
+                }
+                Object last = null;
+                for (Object item : (Collection) c.getValue()) {
+                    valueList.add(item);
+                    last = item;
+                }
+                for (int n = ((Collection) c.getValue()).size(); n < valuePlan[i]; n++) {
+                    valueList.add(last);
+                }
+            }
+        }
+    }
+}
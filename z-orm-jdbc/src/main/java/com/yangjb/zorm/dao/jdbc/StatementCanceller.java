@@ -0,0 +1,66 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import com.yangjb.zorm.dao.AsyncBaseDao;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 异步dao的任务,记录任务线程上正在执行的语句,任务被取消或超时时取消语句
+ * 只中断线程不能结束阻塞在网络读写上的jdbc调用,语句会继续占用连接和数据库资源
+ * 语句由TrackedJdbcTemplate在设置参数前登记
+ */
+@Slf4j
+final class StatementCanceller implements AsyncBaseDao.CancellableTask {
+    private static final ThreadLocal<StatementCanceller> CURRENT = new ThreadLocal<StatementCanceller>();
+
+    private final Runnable task;
+    private final AtomicReference<Statement> statement = new AtomicReference<Statement>();
+    private volatile boolean cancelled;
+
+    StatementCanceller(Runnable task) {
+        this.task = task;
+    }
+
+    /**
+     * 登记当前线程正在执行的语句,不在异步任务中时忽略
+     *
+     * @throws SQLException 任务已被取消
+     */
+    static void register(Statement stmt) throws SQLException {
+        StatementCanceller canceller = CURRENT.get();
+        if (canceller == null) {
+            return;
+        }
+        canceller.statement.set(stmt);
+        if (canceller.cancelled) {
+            throw new SQLException("async dao task cancelled");
+        }
+    }
+
+    @Override
+    public void run() {
+        CURRENT.set(this);
+        try {
+            task.run();
+        } finally {
+            CURRENT.remove();
+            statement.set(null);
+        }
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        Statement stmt = statement.get();
+        if (stmt != null) {
+            try {
+                stmt.cancel();
+            } catch (SQLException | RuntimeException e) {
+                log.debug("cancel async dao statement failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import com.google.common.collect.Sets;
+
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * dao生成sql的统计
+ * 记录不同sql文本的个数,用于观察IN列表等导致的sql种类膨胀(影响服务端和驱动的预编译语句缓存)
+ */
+public final class StatementStatistics {
+    /**
+     * 最多记录的不同sql个数,超过后不再增加,避免sql种类无限膨胀时占用内存
+     */
+    private static final int MAX_TRACKED_STATEMENTS = 10000;
+
+    private final Set<String> statements = Sets.newConcurrentHashSet();
+    private final LongAdder executeCount = new LongAdder();
+
+    void record(String sql) {
+        executeCount.increment();
+        if (statements.size() < MAX_TRACKED_STATEMENTS) {
+            statements.add(sql);
+        }
+    }
+
+    /**
+     * 不同sql文本的个数,达到MAX_TRACKED_STATEMENTS后不再增长
+     */
+    public int getDistinctStatementCount() {
+        return statements.size();
+    }
+
+    /**
+     * 生成sql的总次数
+     */
+    public long getExecuteCount() {
+        return executeCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "StatementStatistics[distinctStatementCount=" + getDistinctStatementCount() + ", executeCount=" + getExecuteCount() + "]";
+    }
+}
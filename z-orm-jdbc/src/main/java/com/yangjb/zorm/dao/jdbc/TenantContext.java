@@ -0,0 +1,47 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import java.util.function.Supplier;
+
+/**
+ * 线程级别的租户上下文,设置了JdbcSettings.tenantProvider时dao按当前租户选择数据源
+ * 不在作用域中的操作使用dao的settings对应的共享数据源
+ */
+public class TenantContext {
+    private TenantContext() {
+    }
+
+    /**
+     * 当前作用域的租户
+     */
+    private static final ThreadLocal<String> tenantId = new ThreadLocal<String>();
+
+    /**
+     * 以指定租户的身份执行,可以嵌套,结束后恢复外层的租户
+     *
+     * @param tenantId - 租户标识
+     * @param supplier - 执行的操作
+     * @return - 操作的返回值
+     */
+    public static <R> R execute(String tenantId, Supplier<R> supplier) {
+        String outerTenantId = TenantContext.tenantId.get();
+        TenantContext.tenantId.set(tenantId);
+        try {
+            return supplier.get();
+        } finally {
+            if (outerTenantId == null) {
+                TenantContext.tenantId.remove();
+            } else {
+                TenantContext.tenantId.set(outerTenantId);
+            }
+        }
+    }
+
+    /**
+     * 当前作用域的租户
+     *
+     * @return 不在作用域中返回null
+     */
+    public static String getTenantId() {
+        return tenantId.get();
+    }
+}
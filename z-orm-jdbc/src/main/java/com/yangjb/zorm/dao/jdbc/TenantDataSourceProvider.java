@@ -0,0 +1,38 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import javax.sql.DataSource;
+
+/**
+ * 租户专用数据源的提供者,通过JdbcSettings.tenantProvider设置
+ * 第一次访问租户时创建路由器,连接总数超过上限时关闭最久未访问的空闲租户
+ */
+public interface TenantDataSourceProvider {
+
+    /**
+     * 租户专用数据源的settings,第一次访问租户时调用,结果会被缓存
+     *
+     * @param tenantId - 租户标识
+     * @return - 租户的settings,返回null时使用dao的settings对应的共享数据源
+     */
+    JdbcSettings getSettings(String tenantId);
+
+    /**
+     * settings中全部数据源的最大连接数之和,用于JdbcSettings.tenantMaxConnections
+     *
+     * @param jdbcSettings - getSettings返回的settings
+     * @return - 最大连接数
+     */
+    int getMaxConnections(JdbcSettings jdbcSettings);
+
+    /**
+     * 关闭被淘汰租户的数据源,在正在执行的请求结束后调用,抛出的异常只记录日志
+     * 默认关闭实现了AutoCloseable的数据源
+     *
+     * @param dataSource - 数据源
+     */
+    default void close(DataSource dataSource) throws Exception {
+        if (dataSource instanceof AutoCloseable) {
+            ((AutoCloseable) dataSource).close();
+        }
+    }
+}
@@ -0,0 +1,458 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.yangjb.zorm.dao.DatabaseRouter;
+import com.yangjb.zorm.exception.DaoException;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 多租户路由器,每个设置了tenantProvider的JdbcSettings一个
+ * 按TenantContext的租户选择路由器:不在租户作用域中或provider未提供专用settings的租户使用共享路由器
+ * 专用路由器在第一次访问时创建并缓存,路由时只有一次ThreadLocal读取和一次ConcurrentMap查找
+ * 创建在锁外进行,同一租户的并发访问等待同一次创建,不阻塞其他租户
+ * 使用共享路由器的租户单独缓存,数量有上限并定期过期,过期后重新调用provider
+ * dao的每次调用通过enter占用当前租户,调用结束(游标关闭)时释放,调用中只解析一次租户
+ * 专用路由器的连接数之和超过tenantMaxConnections时,按最后访问时间关闭没有被占用的租户,
+ * 数据源在请求排空后由provider关闭;仍然无法容纳时新租户的访问抛出DaoException
+ */
+@Slf4j
+public final class TenantRouter implements DatabaseRouter {
+    private final JdbcDatabaseRouter sharedRouter;
+    private final TenantDataSourceProvider provider;
+    //使用共享路由器的租户的缓存数量和过期时间
+    private static final int SHARED_TENANT_CACHE_SIZE = 10000;
+    private static final int SHARED_TENANT_EXPIRE_MINUTES = 10;
+
+    private final int maxConnections;
+    //租户到专用路由器,运行中无锁读取
+    private final ConcurrentMap<String, Tenant> tenants = Maps.newConcurrentMap();
+    //正在创建专用路由器的租户
+    private final ConcurrentMap<String, CompletableFuture<Tenant>> creating = Maps.newConcurrentMap();
+    //使用共享路由器的租户,避免每次调用provider
+    private final Cache<String, Boolean> sharedTenants = CacheBuilder.newBuilder()
+            .maximumSize(SHARED_TENANT_CACHE_SIZE)
+            .expireAfterWrite(SHARED_TENANT_EXPIRE_MINUTES, TimeUnit.MINUTES)
+            .build();
+    //当前线程正在执行的dao调用占用的租户
+    private final ThreadLocal<Lease> currentLease = new ThreadLocal<Lease>();
+    //专用路由器(含正在创建的)的连接数之和,只在synchronized中修改
+    private volatile int connections;
+    private final LongAdder createCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    TenantRouter(JdbcSettings jdbcSettings, JdbcDatabaseRouter sharedRouter) {
+        this.sharedRouter = sharedRouter;
+        this.provider = jdbcSettings.getTenantProvider();
+        this.maxConnections = jdbcSettings.getTenantMaxConnections();
+    }
+
+    /**
+     * dao调用开始时占用当前租户,直到leave并release;嵌套的相同租户的调用复用外层的占用
+     *
+     * @return - 新的占用,复用外层的占用时返回null
+     * @throws DaoException 租户连接总数已达到上限且没有空闲租户可以关闭
+     */
+    Lease enter() {
+        String tenantId = TenantContext.getTenantId();
+        Lease outer = currentLease.get();
+        if (outer != null && Objects.equals(outer.tenantId, tenantId)) {
+            return null;
+        }
+        Lease lease = this.acquire(tenantId);
+        lease.outer = outer;
+        currentLease.set(lease);
+        return lease;
+    }
+
+    /**
+     * 恢复外层的占用,lease仍需release;游标在调用结束后继续持有lease
+     */
+    void leave(Lease lease) {
+        if (lease.outer == null) {
+            currentLease.remove();
+        } else {
+            currentLease.set(lease.outer);
+        }
+    }
+
+    /**
+     * 当前dao调用占用的租户的路由器
+     *
+     * @throws DaoException 不在enter和leave之间
+     */
+    JdbcDatabaseRouter current() {
+        Lease lease = currentLease.get();
+        if (lease == null) {
+            throw new DaoException("租户路由只能在dao调用中使用");
+        }
+        return lease.router;
+    }
+
+    private Lease acquire(String tenantId) {
+        if (tenantId == null) {
+            return new Lease(null, null, sharedRouter);
+        }
+        while (true) {
+            Tenant tenant = tenants.get(tenantId);
+            if (tenant == null) {
+                tenant = sharedTenants.getIfPresent(tenantId) != null ? null : this.create(tenantId);
+                if (tenant == null) {
+                    return new Lease(tenantId, null, sharedRouter);
+                }
+            }
+            //取得后被淘汰的租户不能再占用,重新创建
+            if (tenant.tryAcquire()) {
+                tenant.touch();
+                return new Lease(tenantId, tenant, tenant.router);
+            }
+        }
+    }
+
+    /**
+     * 当前租户的写库,不占用租户,只用于兼容DatabaseRouter;dao通过enter占用租户
+     */
+    @Override
+    public Object writeRoute() {
+        return this.route().writeRoute();
+    }
+
+    /**
+     * 当前租户的读库,不占用租户,只用于兼容DatabaseRouter;dao通过enter占用租户
+     */
+    @Override
+    public Object readRoute() {
+        return this.route().readRoute();
+    }
+
+    private JdbcDatabaseRouter route() {
+        Lease lease = currentLease.get();
+        if (lease != null && Objects.equals(lease.tenantId, TenantContext.getTenantId())) {
+            return lease.router;
+        }
+        lease = this.acquire(TenantContext.getTenantId());
+        lease.release();
+        return lease.router;
+    }
+
+    /**
+     * 创建租户的专用路由器,同一租户同时只有一个线程调用provider和创建路由器,其他线程等待结果
+     *
+     * @return - provider没有提供专用settings时返回null
+     */
+    private Tenant create(String tenantId) {
+        CompletableFuture<Tenant> future = new CompletableFuture<Tenant>();
+        CompletableFuture<Tenant> existing = creating.putIfAbsent(tenantId, future);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            //等待期间其他线程可能已经创建完成
+            Tenant tenant = tenants.get(tenantId);
+            if (tenant == null) {
+                tenant = this.build(tenantId);
+            }
+            future.complete(tenant);
+            return tenant;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            creating.remove(tenantId, future);
+        }
+    }
+
+    private Tenant build(String tenantId) {
+        JdbcSettings tenantSettings = provider.getSettings(tenantId);
+        if (tenantSettings == null) {
+            sharedTenants.put(tenantId, Boolean.TRUE);
+            return null;
+        }
+        int required = provider.getMaxConnections(tenantSettings);
+        this.reserve(tenantId, required);
+        JdbcDatabaseRouter router;
+        try {
+            router = new JdbcDatabaseRouter(tenantSettings);
+        } catch (RuntimeException e) {
+            this.unreserve(required);
+            throw e;
+        }
+        Tenant tenant = new Tenant(tenantId, router, required);
+        tenants.put(tenantId, tenant);
+        createCount.increment();
+        log.info("create tenant router: " + tenantId + ", connections " + connections + "/" + maxConnections);
+        return tenant;
+    }
+
+    /**
+     * 为新租户预留连接数,不够时先关闭空闲租户
+     *
+     * @throws DaoException 关闭空闲租户后仍然无法容纳
+     */
+    private synchronized void reserve(String tenantId, int required) {
+        if (maxConnections > 0) {
+            this.evictIdle(required);
+            if (connections + required > maxConnections) {
+                rejectedCount.increment();
+                throw new DaoException("租户" + tenantId + "需要" + required + "个连接,租户连接总数" + connections + "已达到上限" + maxConnections + "且没有空闲租户可以关闭");
+            }
+        }
+        connections += required;
+    }
+
+    /**
+     * 创建路由器失败,归还预留的连接数
+     */
+    private synchronized void unreserve(int required) {
+        connections -= required;
+    }
+
+    /**
+     * 按最后访问时间从早到晚关闭没有被占用的租户,直到能再容纳required个连接
+     */
+    private void evictIdle(int required) {
+        if (connections + required <= maxConnections) {
+            return;
+        }
+        List<Tenant> idle = Lists.newArrayList();
+        for (Tenant tenant : tenants.values()) {
+            //没有dao调用占用,也没有通过DatabaseRouter接口取得的路由正在执行
+            if (tenant.leases.get() == 0 && tenant.router.getInFlight() == 0) {
+                idle.add(tenant);
+            }
+        }
+        idle.sort(Comparator.comparingLong(tenant -> tenant.lastAccessMillis));
+        for (Tenant tenant : idle) {
+            if (connections + required <= maxConnections) {
+                return;
+            }
+            //选出后又被占用的租户跳过
+            if (tenant.tryCloseIdle()) {
+                this.remove(tenant);
+                this.closeRouter(tenant);
+            }
+        }
+    }
+
+    /**
+     * 关闭租户的专用路由器,用于租户迁移或下线,下次访问时重新调用provider
+     * 新的访问立即使用新的路由器,原路由器在占用全部释放后关闭;正在创建的路由器不受影响
+     *
+     * @param tenantId - 租户标识
+     * @return - 租户没有缓存的路由器时返回false
+     */
+    public synchronized boolean evict(String tenantId) {
+        if (sharedTenants.getIfPresent(tenantId) != null) {
+            sharedTenants.invalidate(tenantId);
+            return true;
+        }
+        Tenant tenant = tenants.get(tenantId);
+        if (tenant == null) {
+            return false;
+        }
+        this.remove(tenant);
+        if (tenant.close()) {
+            this.closeRouter(tenant);
+        }
+        return true;
+    }
+
+    /**
+     * 移除租户并归还连接数,之后的访问重新创建路由器
+     */
+    private void remove(Tenant tenant) {
+        tenants.remove(tenant.tenantId);
+        connections -= tenant.connections;
+        evictionCount.increment();
+        log.info("evict tenant router: " + tenant.tenantId + ", connections " + connections + "/" + maxConnections);
+    }
+
+    /**
+     * 占用全部释放后关闭路由器,数据源在请求排空后由provider关闭
+     */
+    private void closeRouter(Tenant tenant) {
+        tenant.router.close().thenAccept(dataSources -> {
+            for (DataSource dataSource : dataSources) {
+                try {
+                    provider.close(dataSource);
+                } catch (Exception e) {
+                    log.warn("close tenant dataSource failed: " + tenant.tenantId, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 租户当前的专用路由器,用于监控
+     *
+     * @return 未缓存或使用共享路由器时返回null
+     */
+    public JdbcDatabaseRouter getTenantRouter(String tenantId) {
+        Tenant tenant = tenants.get(tenantId);
+        return tenant == null ? null : tenant.router;
+    }
+
+    /**
+     * 使用专用路由器的租户数
+     */
+    public int getTenantCount() {
+        return tenants.size();
+    }
+
+    /**
+     * 专用路由器的连接数之和
+     */
+    public int getConnections() {
+        return connections;
+    }
+
+    public long getCreateCount() {
+        return createCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * 因连接总数达到上限被拒绝的新租户访问次数
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "TenantRouter[tenantCount=" + getTenantCount() + ", connections=" + connections + ", maxConnections=" + maxConnections
+                + ", createCount=" + getCreateCount() + ", evictionCount=" + getEvictionCount() + ", rejectedCount=" + getRejectedCount() + "]";
+    }
+
+    /**
+     * 一次dao调用对租户的占用,只能在一个线程中使用
+     */
+    final class Lease {
+        //不在租户作用域中为null
+        private final String tenantId;
+        //使用共享路由器时为null,不计数
+        private final Tenant tenant;
+        private final JdbcDatabaseRouter router;
+        //同一线程中外层的占用
+        private Lease outer;
+        private boolean released;
+
+        private Lease(String tenantId, Tenant tenant, JdbcDatabaseRouter router) {
+            this.tenantId = tenantId;
+            this.tenant = tenant;
+            this.router = router;
+        }
+
+        JdbcDatabaseRouter getRouter() {
+            return router;
+        }
+
+        /**
+         * 释放占用,重复调用无效;租户已被淘汰且这是最后一个占用时关闭路由器
+         */
+        void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (tenant != null && tenant.release()) {
+                TenantRouter.this.closeRouter(tenant);
+            }
+        }
+    }
+
+    private static final class Tenant {
+        //leases的关闭标志位,低位为占用数
+        private static final int CLOSED = Integer.MIN_VALUE;
+
+        private final String tenantId;
+        private final JdbcDatabaseRouter router;
+        private final int connections;
+        private final AtomicInteger leases = new AtomicInteger();
+        private volatile long lastAccessMillis;
+
+        private Tenant(String tenantId, JdbcDatabaseRouter router, int connections) {
+            this.tenantId = tenantId;
+            this.router = router;
+            this.connections = connections;
+            this.lastAccessMillis = System.currentTimeMillis();
+        }
+
+        /**
+         * 未关闭时占用一次
+         */
+        private boolean tryAcquire() {
+            while (true) {
+                int current = leases.get();
+                if (current < 0) {
+                    return false;
+                }
+                if (leases.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * @return - 已关闭且这是最后一个占用时返回true,由调用方关闭路由器
+         */
+        private boolean release() {
+            return leases.decrementAndGet() == CLOSED;
+        }
+
+        /**
+         * 没有占用时关闭
+         */
+        private boolean tryCloseIdle() {
+            return leases.compareAndSet(0, CLOSED);
+        }
+
+        /**
+         * 关闭,之后不能再占用
+         *
+         * @return - 没有占用时返回true,由调用方关闭路由器;否则由最后一个release关闭
+         */
+        private boolean close() {
+            while (true) {
+                int current = leases.get();
+                if (current < 0) {
+                    return false;
+                }
+                if (leases.compareAndSet(current, current | CLOSED)) {
+                    return current == 0;
+                }
+            }
+        }
+
+        /**
+         * 同一毫秒内不重复写,减少热点租户的缓存行竞争
+         */
+        private void touch() {
+            long now = System.currentTimeMillis();
+            if (now != lastAccessMillis) {
+                lastAccessMillis = now;
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.*;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.function.Supplier;
+
+/**
+ * 记录执行情况的JdbcTemplate,所有query、update、batchUpdate最终都经过这几个execute方法
+ * 属于舱壁分区时先获取分区的许可再获取连接
+ * 在execute之外持有连接的操作(游标)通过lease同样计入舱壁、并发限制和正在执行的请求数
+ * 异步dao任务中的语句登记到StatementCanceller,任务取消或超时时取消语句
+ */
+final class TrackedJdbcTemplate extends JdbcTemplate {
+    private final ReplicaNode replicaNode;
+    //不属于舱壁分区时为null
+    private final Bulkhead bulkhead;
+
+    TrackedJdbcTemplate(DataSource dataSource, ReplicaNode replicaNode, Bulkhead bulkhead) {
+        super(dataSource);
+        this.replicaNode = replicaNode;
+        this.bulkhead = bulkhead;
+    }
+
+    Bulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    @Override
+    public <T> T execute(ConnectionCallback<T> action) throws DataAccessException {
+        return track(() -> super.execute(action));
+    }
+
+    @Override
+    public <T> T execute(StatementCallback<T> action) throws DataAccessException {
+        return track(() -> super.execute(action));
+    }
+
+    @Override
+    public <T> T execute(PreparedStatementCreator psc, PreparedStatementCallback<T> action) throws DataAccessException {
+        return track(() -> super.execute(psc, action));
+    }
+
+    @Override
+    public <T> T execute(CallableStatementCreator csc, CallableStatementCallback<T> action) throws DataAccessException {
+        return track(() -> super.execute(csc, action));
+    }
+
+    @Override
+    protected void applyStatementSettings(Statement stmt) throws SQLException {
+        super.applyStatementSettings(stmt);
+        StatementCanceller.register(stmt);
+    }
+
+    /**
+     * 开始一个在execute之外持有连接的操作,获取舱壁许可并计入正在执行的请求数,操作结束时必须释放
+     *
+     * @throws com.yangjb.zorm.exception.BulkheadFullException 舱壁分区已满
+     * @throws com.yangjb.zorm.exception.LimitExceededException 超过自适应并发上限
+     */
+    Lease lease() {
+        if (bulkhead != null) {
+            bulkhead.acquire();
+        }
+        try {
+            replicaNode.onStart();
+        } catch (RuntimeException e) {
+            if (bulkhead != null) {
+                bulkhead.release();
+            }
+            throw e;
+        }
+        return new Lease();
+    }
+
+    private <T> T track(Supplier<T> supplier) {
+        if (bulkhead == null) {
+            return this.record(supplier);
+        }
+        bulkhead.acquire();
+        try {
+            return this.record(supplier);
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    private <T> T record(Supplier<T> supplier) {
+        replicaNode.onStart();
+        long start = System.nanoTime();
+        try {
+            T result = supplier.get();
+            replicaNode.onSuccess(System.nanoTime() - start);
+            return result;
+        } catch (RuntimeException e) {
+            if (Thread.currentThread().isInterrupted()) {//被取消的查询(异步超时、对冲读等)不计入数据源的失败
+                replicaNode.onAbort();
+            } else {
+                replicaNode.onFailure(System.nanoTime() - start, e);
+            }
+            throw e;
+        } catch (Error e) {
+            replicaNode.onAbort();
+            throw e;
+        }
+    }
+
+    /**
+     * lease取得的许可,只能释放一次
+     */
+    final class Lease {
+        private final long start = System.nanoTime();
+        //查询返回第一批结果的耗时,之后的持有时间取决于调用方读取的速度,不计入延迟
+        private long openNanos = -1;
+        private boolean released;
+
+        /**
+         * 查询已返回结果
+         */
+        void opened() {
+            openNanos = System.nanoTime() - start;
+        }
+
+        /**
+         * 正常结束
+         */
+        void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (openNanos >= 0) {
+                replicaNode.onSuccess(openNanos);
+            } else {
+                replicaNode.onAbort();
+            }
+            this.releaseBulkhead();
+        }
+
+        /**
+         * 因异常结束
+         *
+         * @param e - spring转换后的异常,用于判断是否是连接失败
+         */
+        void fail(RuntimeException e) {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (Thread.currentThread().isInterrupted()) {
+                replicaNode.onAbort();
+            } else {
+                replicaNode.onFailure(System.nanoTime() - start, e);
+            }
+            this.releaseBulkhead();
+        }
+
+        private void releaseBulkhead() {
+            if (bulkhead != null) {
+                bulkhead.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.yangjb.zorm.dao.jdbc.enums;
+
+/**
+ * 数据源自适应并发限制算法
+ */
+public enum ConcurrencyLimitEnum {
+    /**
+     * 按最小延迟和本次延迟的比值调整上限,延迟升高时按比例减小
+     */
+    GRADIENT,
+    /**
+     * 按最小延迟估算排队的请求数,排队少时增加上限,排队多时减小
+     */
+    VEGAS
+}
@@ -6,17 +6,24 @@ package com.yangjb.zorm.dao.jdbc.enums;
  * @author zhoutao
  */
 public enum DialectEnum {
-    MYSQL("mysql"),
-    ORACLE("oracle"),
-    ELASTICSEARCH("elasticsearch");
+    MYSQL("mysql", true),
+    ORACLE("oracle", false),
+    ELASTICSEARCH("elasticsearch", false);
 
     private final String value;
+    //升序时null排在最前,降序时相反
+    private final boolean nullsFirst;
 
-    DialectEnum(String value) {
+    DialectEnum(String value, boolean nullsFirst) {
         this.value = value;
+        this.nullsFirst = nullsFirst;
     }
 
     public String value() {
         return this.value;
     }
+
+    public boolean nullsFirst() {
+        return this.nullsFirst;
+    }
 }
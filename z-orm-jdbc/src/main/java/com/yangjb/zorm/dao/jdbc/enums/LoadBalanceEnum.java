@@ -0,0 +1,23 @@
+package com.yangjb.zorm.dao.jdbc.enums;
+
+/**
+ * 读库负载均衡策略
+ */
+public enum LoadBalanceEnum {
+    /**
+     * 随机
+     */
+    RANDOM,
+    /**
+     * 按权重轮询
+     */
+    WEIGHTED_ROUND_ROBIN,
+    /**
+     * 选择正在执行请求数最少的
+     */
+    LEAST_OUTSTANDING,
+    /**
+     * 随机选两个,选择EWMA延迟*(正在执行请求数+1)较小的
+     */
+    EWMA_P2C
+}
@@ -0,0 +1,19 @@
+package com.yangjb.zorm.dao.jdbc.enums;
+
+/**
+ * 分片策略
+ */
+public enum ShardingStrategyEnum {
+    /**
+     * 分片键对分片数取模,非数字按hash取模
+     */
+    MOD,
+    /**
+     * 按分片键的数值范围,每个分片对应一个上界
+     */
+    RANGE,
+    /**
+     * 一致性hash,增加分片时只有少量数据需要迁移
+     */
+    CONSISTENT_HASH
+}
@@ -1,6 +1,11 @@
 package com.yangjb.zorm.dao.jdbc.transaction;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 
 public class TransactionContext {
     private TransactionContext() {
@@ -21,6 +26,16 @@ public class TransactionContext {
         }
     };
 
+    /**
+     * 当前事物结束(提交或回滚)后需要执行的回调
+     */
+    private static final ThreadLocal<List<Runnable>> afterCompletions = new ThreadLocal<List<Runnable>>();
+
+    /**
+     * 事物内的一级缓存,entityClass到(id到entity)的映射,事物结束时丢弃
+     */
+    private static final ThreadLocal<Map<Class<?>, Map<String, Object>>> identityMaps = new ThreadLocal<Map<Class<?>, Map<String, Object>>>();
+
     public static void enterTransaction() {
         context.set(Boolean.TRUE);
         inTransThreadIdSet.add(Thread.currentThread().getId());
@@ -29,6 +44,65 @@ public class TransactionContext {
     public static void leaveTransaction() {
         context.set(Boolean.FALSE);
         inTransThreadIdSet.remove(Thread.currentThread().getId());
+        identityMaps.remove();
+    }
+
+    /**
+     * 获取当前事物内entityClass对应的一级缓存,key为String.valueOf(id)
+     *
+     * @param entityClass
+     * @return 不在事物中返回null
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Map<String, T> getIdentityMap(Class<T> entityClass) {
+        if (!isInTransaction()) {
+            return null;
+        }
+        Map<Class<?>, Map<String, Object>> maps = identityMaps.get();
+        if (maps == null) {
+            maps = new HashMap<Class<?>, Map<String, Object>>();
+            identityMaps.set(maps);
+        }
+        Map<String, Object> identityMap = maps.get(entityClass);
+        if (identityMap == null) {
+            identityMap = new HashMap<String, Object>();
+            maps.put(entityClass, identityMap);
+        }
+        return (Map<String, T>) identityMap;
+    }
+
+    /**
+     * 清空当前事物内所有的一级缓存,用于无法确定影响哪些entity的写操作
+     */
+    public static void clearIdentityMaps() {
+        identityMaps.remove();
+    }
+
+    /**
+     * 注册当前事物结束后执行的回调,不在事物中时直接执行
+     *
+     * @param runnable
+     */
+    public static void registerAfterCompletion(Runnable runnable) {
+        if (!isInTransaction()) {
+            runnable.run();
+            return;
+        }
+        List<Runnable> runnables = afterCompletions.get();
+        if (runnables == null) {
+            runnables = new ArrayList<Runnable>();
+            afterCompletions.set(runnables);
+        }
+        runnables.add(runnable);
+    }
+
+    /**
+     * 取出并清空当前线程注册的回调
+     */
+    static List<Runnable> drainAfterCompletions() {
+        List<Runnable> runnables = afterCompletions.get();
+        afterCompletions.remove();
+        return runnables == null ? Collections.<Runnable>emptyList() : runnables;
     }
 
     public static boolean isInTransaction() {
@@ -2,6 +2,7 @@ package com.yangjb.zorm.dao.jdbc.transaction;
 
 import com.yangjb.zorm.exception.DaoExceptionTranslator;
 import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
@@ -15,6 +16,7 @@ import org.springframework.transaction.support.DefaultTransactionDefinition;
  * @author zhoutao
  * @since 2015/11/24
  */
+@Slf4j
 public class TransactionManager {
     @Setter
     private PlatformTransactionManager txManager;
@@ -53,6 +55,13 @@ public class TransactionManager {
         } finally {
             if (!isNested) {//嵌套事物由外层标记leave
                 TransactionContext.leaveTransaction();
+                for (Runnable runnable : TransactionContext.drainAfterCompletions()) {
+                    try {
+                        runnable.run();
+                    } catch (RuntimeException e) {
+                        log.warn("transaction after completion callback failed", e);
+                    }
+                }
             }
         }
         return object;
@@ -0,0 +1,113 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用模拟的数据源验证限制算法:数据源能并行处理capacity个请求,超过后排队,延迟按并发数/capacity线性增加
+ * 客户端始终有DEMAND个请求等待执行,正在执行的请求数等于当前上限
+ */
+public class LimitAlgorithmTest {
+    private static final int DEMAND = 100;
+    private static final int MAX_LIMIT = 200;
+    private static final long BASE_RTT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int CAPACITY = 20;
+    //变慢后的数据源:延迟增加10倍,并行能力降为5
+    private static final long SLOW_RTT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int SLOW_CAPACITY = 5;
+    private static final int SAMPLES = 300;
+
+    @Test
+    public void gradientFollowsSlowDataSource() {
+        this.assertFollowsSlowDataSource(new LimitAlgorithm.GradientLimit());
+    }
+
+    @Test
+    public void vegasFollowsSlowDataSource() {
+        this.assertFollowsSlowDataSource(new LimitAlgorithm.VegasLimit());
+    }
+
+    @Test
+    public void dropHalvesLimit() {
+        for (LimitAlgorithm algorithm : new LimitAlgorithm[]{new LimitAlgorithm.GradientLimit(), new LimitAlgorithm.VegasLimit()}) {
+            assertEquals(40 * LimitAlgorithm.DROP_RATIO, algorithm.update(40, BASE_RTT_NANOS, 40, true), 0.0001);
+        }
+    }
+
+    /**
+     * 其他线程正在调整上限时,失败样本等待调整而不是被跳过
+     */
+    @Test
+    public void dropSampleIsNotSkippedUnderContention() throws Exception {
+        CountDownLatch updating = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        AtomicInteger drops = new AtomicInteger();
+        LimitAlgorithm algorithm = (limit, rttNanos, inFlight, dropped) -> {
+            if (dropped) {
+                drops.incrementAndGet();
+                return limit * LimitAlgorithm.DROP_RATIO;
+            }
+            updating.countDown();
+            try {
+                proceed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return limit;
+        };
+        AdaptiveLimiter limiter = new AdaptiveLimiter(algorithm, 40, 1, MAX_LIMIT);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+
+        Thread success = new Thread(() -> limiter.release(BASE_RTT_NANOS, false));
+        success.start();
+        assertTrue(updating.await(5, TimeUnit.SECONDS));
+        Thread drop = new Thread(() -> limiter.release(BASE_RTT_NANOS, true));
+        drop.start();
+        //失败样本在等待锁
+        drop.join(200);
+        assertTrue(drop.isAlive());
+
+        proceed.countDown();
+        success.join(5000);
+        drop.join(5000);
+        assertEquals(1, drops.get());
+        assertEquals(20, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    /**
+     * 正常时上限在并行能力附近,数据源变慢后上限降到变慢后的并行能力附近,恢复后上限回升
+     */
+    private void assertFollowsSlowDataSource(LimitAlgorithm algorithm) {
+        String name = algorithm.getClass().getSimpleName();
+        double limit = this.simulate(algorithm, CAPACITY, CAPACITY, BASE_RTT_NANOS);
+        assertTrue(name + " healthy limit " + limit, limit >= CAPACITY && limit <= 3 * CAPACITY);
+
+        limit = this.simulate(algorithm, limit, SLOW_CAPACITY, SLOW_RTT_NANOS);
+        assertTrue(name + " slow limit " + limit, limit <= 2 * SLOW_CAPACITY);
+
+        limit = this.simulate(algorithm, limit, CAPACITY, BASE_RTT_NANOS);
+        assertTrue(name + " recovered limit " + limit, limit >= CAPACITY);
+    }
+
+    /**
+     * 按AdaptiveLimiter的方式连续调整SAMPLES次
+     *
+     * @return - 最后的上限
+     */
+    private double simulate(LimitAlgorithm algorithm, double limit, int capacity, long rttNanos) {
+        for (int i = 0; i < SAMPLES; i++) {
+            int inFlight = Math.max((int) Math.min(limit, DEMAND), 1);
+            long rtt = (long) (rttNanos * Math.max(1.0, (double) inFlight / capacity));
+            limit = Math.min(Math.max(algorithm.update(limit, rtt, inFlight, false), 1), MAX_LIMIT);
+        }
+        return limit;
+    }
+}
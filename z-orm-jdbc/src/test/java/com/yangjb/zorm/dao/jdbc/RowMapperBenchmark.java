@@ -0,0 +1,104 @@
+package com.yangjb.zorm.dao.jdbc;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.yangjb.zorm.annotation.Table;
+import com.yangjb.zorm.entity.LongIdEntity;
+import com.yangjb.zorm.utils.BeanUtils;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.h2.jdbcx.JdbcDataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 行映射的吞吐量和内存分配对比:EntityRowMapper直接映射 vs 原来的queryForList + 列名转属性名 + BeanUtils.mapToBean
+ * 使用h2内存库的ROWS行报表查询,每种方式先预热再计时,输出每次查询的毫秒数和每行分配的字节数
+ * 不是单元测试,surefire不会运行;test-compile后用test classpath运行main,可以通过参数指定行数:
+ * mvn -pl z-orm-jdbc test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp z-orm-jdbc/target/test-classes:z-orm-jdbc/target/classes:$(cat z-orm-jdbc/cp.txt) com.yangjb.zorm.dao.jdbc.RowMapperBenchmark
+ */
+public class RowMapperBenchmark {
+    private static final int ROWS = 50000;
+    private static final int WARMUP = 10;
+    private static final int ITERATIONS = 20;
+    private static final String SQL = "SELECT * FROM t_bench";
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : ROWS;
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:bench;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE t_bench(id BIGINT PRIMARY KEY, name VARCHAR(50), status INT, amount BIGINT, price DECIMAL(10,2), create_time TIMESTAMP)");
+        List<Object[]> batchArgs = Lists.newArrayListWithCapacity(rows);
+        for (int i = 1; i <= rows; i++) {
+            batchArgs.add(new Object[]{i, "name" + i, i % 10, i * 100L, new BigDecimal(i % 1000 + ".99"), new Timestamp(System.currentTimeMillis())});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO t_bench VALUES(?,?,?,?,?,?)", batchArgs);
+
+        EntityMapper<BenchEntity> entityMapper = new EntityMapper<BenchEntity>(BenchEntity.class);
+        measure("EntityRowMapper", rows, () -> jdbcTemplate.query(SQL, entityMapper.getRowMapper()));
+        measure("queryForList+mapToBean", rows, () -> mapToBean(jdbcTemplate.queryForList(SQL), entityMapper));
+    }
+
+    /**
+     * 原来的映射方式
+     */
+    private static List<BenchEntity> mapToBean(List<Map<String, Object>> list, EntityMapper<BenchEntity> entityMapper) {
+        List<BenchEntity> entityList = Lists.newArrayListWithCapacity(list.size());
+        for (Map<String, Object> map : list) {
+            HashMap<String, Object> propertyMap = Maps.newHashMap();
+            for (Map.Entry<String, Object> entry : map.entrySet()) {
+                String propertyName = entityMapper.getColumnToPropertyMapper().get(entry.getKey().toLowerCase());
+                if (propertyName != null) {
+                    propertyMap.put(propertyName, entry.getValue());
+                }
+            }
+            entityList.add(BeanUtils.mapToBean(propertyMap, BenchEntity.class));
+        }
+        return entityList;
+    }
+
+    private static void measure(String name, int rows, Supplier<List<BenchEntity>> query) {
+        for (int i = 0; i < WARMUP; i++) {
+            check(query.get(), rows);
+        }
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long bytes = threadMXBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            check(query.get(), rows);
+        }
+        long nanos = System.nanoTime() - start;
+        bytes = threadMXBean.getThreadAllocatedBytes(threadId) - bytes;
+        System.out.printf("%-24s %8.1f ms/query %10.0f rows/s %8d bytes/row%n", name, nanos / 1e6 / ITERATIONS,
+                (double) rows * ITERATIONS / nanos * 1e9, bytes / ((long) rows * ITERATIONS));
+    }
+
+    private static void check(List<BenchEntity> entityList, int rows) {
+        if (entityList.size() != rows || entityList.get(rows - 1).getName() == null) {
+            throw new IllegalStateException("unexpected result");
+        }
+    }
+
+    @Getter
+    @Setter
+    @ToString
+    @Table("t_bench")
+    public static class BenchEntity extends LongIdEntity {
+        private String name;
+        private Integer status;
+        private Long amount;
+        private BigDecimal price;
+        private java.util.Date createTime;
+    }
+}